@@ -0,0 +1,8 @@
+package com.zanox.coreservice.vmware.service.enums;
+
+/**
+ * States of an asynchronous task
+ */
+public enum TaskState {
+	QUEUED, RUNNING, SUCCESS, ERROR
+}
@@ -0,0 +1,8 @@
+package com.zanox.coreservice.vmware.service.enums;
+
+/**
+ * Types of the events of the VM-event-stream, CURRENT reports the state at subscription or after a resync of the inventory-mirror
+ */
+public enum VmEventType {
+	CURRENT, CREATED, CHANGED, REMOVED
+}
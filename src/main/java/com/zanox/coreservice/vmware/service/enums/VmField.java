@@ -0,0 +1,57 @@
+package com.zanox.coreservice.vmware.service.enums;
+
+/**
+ * Fields of a VM that can be queried, with the property-path read from vCenter
+ */
+public enum VmField {
+	POWER_STATE("powerState", "runtime.powerState"),
+	OVERALL_STATUS("overallStatus", "overallStatus"),
+	HOST("host", "runtime.host"),
+	RESOURCE_POOL("resourcePool", "resourcePool"),
+	NETWORKS("networks", "network"),
+	MAC_ADDRESSES("macAddresses", "config.hardware.device"),
+	GUEST_ID("guestId", "config.guestId"),
+	MEMORY_MB("memoryMB", "config.hardware.memoryMB"),
+	CPU_COUNT("cpuCount", "config.hardware.numCPU"),
+	ANNOTATION("annotation", "config.annotation"),
+	UUID("uuid", "config.uuid"),
+	IP_ADDRESS("ipAddress", "guest.ipAddress");
+
+	private final String key;
+	private final String path;
+
+	private VmField(String key, String path) {
+		this.key = key;
+		this.path = path;
+	}
+
+	/**
+	 * Returns the name of the field in requests and responses
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the property-path of the field
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the field with a key, the key is compared case-insensitive
+	 *
+	 * @param key The key
+	 * @return The field or null if there is no such field
+	 */
+	public static VmField forKey(String key) {
+
+		for (VmField field : values()) {
+			if (field.key.equalsIgnoreCase(key))
+				return field;
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,14 @@
+package com.zanox.coreservice.vmware.service.exception;
+
+/**
+ * Thrown if a mutating operation is not admitted because the queue of an endpoint is full or the operation waited too long,
+ * mapped to HTTP 429 (Too Many Requests)
+ */
+public class AdmissionRejectedException extends VMWareException {
+
+    private static final long serialVersionUID = -2236094470612895417L;
+
+    public AdmissionRejectedException(String cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,445 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.zanox.coreservice.vmware.service.exception.AdmissionRejectedException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admission-control of the mutating operations of a vCenter-endpoint
+ *
+ * An operation is started when the endpoint, its HostSystem and its datastore are below their concurrency-limits and the token-bucket
+ * shared by all endpoints has a token. Waiting operations are queued per caller and admitted round-robin, so one caller with a large
+ * batch does not starve the others. If the queue is full or an operation waits longer than the timeout it is rejected.
+ */
+public class AdmissionController {
+
+    private static Logger logger = Logger.getLogger(AdmissionController.class.getName());
+
+    private static final ThreadLocal<String> CALLER = new ThreadLocal<String>();
+
+    private static final String ANONYMOUS = "anonymous";
+
+    private final String name;
+
+    private final TokenBucket tokens;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    // callers with waiting operations, the caller admitted last is moved to the end
+    private final Map<String, Deque<Ticket>> queues = new LinkedHashMap<String, Deque<Ticket>>();
+
+    private final Map<String, Integer> hosts = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> datastores = new HashMap<String, Integer>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private int running;
+
+    private int queued;
+
+    private int maxRunning;
+
+    private int maxPerHost;
+
+    private int maxPerDatastore;
+
+    private int maxQueued;
+
+    /**
+     * Constructor of <code>AdmissionController</code>
+     *
+     * @param name Name of the endpoint, used in messages
+     * @param tokens Token-bucket shared by all endpoints
+     * @param maxRunning Maximum number of concurrent operations
+     * @param maxPerHost Maximum number of concurrent operations per HostSystem
+     * @param maxPerDatastore Maximum number of concurrent operations per datastore
+     * @param maxQueued Maximum number of waiting operations
+     */
+    public AdmissionController(final String name, final TokenBucket tokens, final int maxRunning, final int maxPerHost,
+                               final int maxPerDatastore, final int maxQueued) {
+        this.name = name;
+        this.tokens = tokens;
+        configure(maxRunning, maxPerHost, maxPerDatastore, maxQueued);
+    }
+
+    /**
+     * Sets the caller of the operations executed by the current thread, used for fair queuing
+     *
+     * @param caller Name of the caller, null to remove it
+     */
+    public static void setCaller(final String caller) {
+
+        if (caller == null)
+            CALLER.remove();
+        else
+            CALLER.set(caller);
+    }
+
+    /**
+     * Returns the caller of the operations executed by the current thread
+     *
+     * @return The caller or null if not set
+     */
+    public static String getCaller() {
+        return CALLER.get();
+    }
+
+    /**
+     * Changes the limits, waiting operations are admitted if the limits were raised
+     */
+    public void configure(final int maxRunning, final int maxPerHost, final int maxPerDatastore, final int maxQueued) {
+
+        lock.lock();
+        try {
+            this.maxRunning = Math.max(1, maxRunning);
+            this.maxPerHost = Math.max(1, maxPerHost);
+            this.maxPerDatastore = Math.max(1, maxPerDatastore);
+            this.maxQueued = Math.max(0, maxQueued);
+
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects an operation early if the queue is full, e.g. before an asynchronous task is submitted
+     *
+     * @throws AdmissionRejectedException If the queue is full
+     */
+    public void checkCapacity() throws AdmissionRejectedException {
+
+        lock.lock();
+        try {
+            if (queued >= maxQueued)
+                throw reject("Too many operations queued on endpoint " + name + ": " + queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until an operation may be started
+     *
+     * @param caller Name of the caller, null for anonymous callers
+     * @param host Name of the HostSystem the operation runs on, null if unknown
+     * @param datastore Name of the datastore the operation writes to, null if unknown
+     * @return The permit, it has to be released when the operation finished
+     * @throws AdmissionRejectedException If the queue is full or the operation waited longer than the timeout
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public Permit admit(final String caller, final String host, final String datastore) throws AdmissionRejectedException, InterruptedException {
+        return admit(caller, host, datastore, Constants.ADMISSION_TIMEOUT);
+    }
+
+    /**
+     * Waits until an operation may be started, e.g. without timeout for the operations of a batch that was accepted as a whole
+     *
+     * @param caller Name of the caller, null for anonymous callers
+     * @param host Name of the HostSystem the operation runs on, null if unknown
+     * @param datastore Name of the datastore the operation writes to, null if unknown
+     * @param timeout Maximum time to wait in ms, 0 to wait until the operation is admitted
+     * @return The permit, it has to be released when the operation finished
+     * @throws AdmissionRejectedException If the queue is full or the operation waited longer than the timeout
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public Permit admit(final String caller, final String host, final String datastore, final long timeout)
+            throws AdmissionRejectedException, InterruptedException {
+
+        Ticket ticket = new Ticket(caller == null ? ANONYMOUS : caller, host, datastore);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        lock.lock();
+        try {
+            if (queued >= maxQueued)
+                throw reject("Too many operations queued on endpoint " + name + ": " + queued);
+
+            enqueue(ticket);
+
+            try {
+                while (true) {
+                    dispatch();
+
+                    if (ticket.granted)
+                        return new Permit(ticket);
+
+                    long remaining = timeout > 0 ? deadline - System.nanoTime() : Long.MAX_VALUE;
+
+                    if (remaining <= 0) {
+                        dequeue(ticket);
+                        throw reject("Operation of " + ticket.caller + " was not admitted on endpoint " + name + " within "
+                                + timeout + " ms");
+                    }
+
+                    // without a token nobody is woken up, so the waiters check again when the next token is available
+                    long refill = queued > 0 ? tokens.nanosUntilAvailable() : 0;
+
+                    changed.awaitNanos(refill > 0 ? Math.min(refill, remaining) : remaining);
+                }
+            } catch (InterruptedException exc) {
+                if (ticket.granted)
+                    finish(ticket);
+                else
+                    dequeue(ticket);
+
+                throw exc;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunning() {
+
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private AdmissionRejectedException reject(final String message) {
+        rejected.incrementAndGet();
+        logger.log(Level.FINE, message);
+        return new AdmissionRejectedException(message);
+    }
+
+    private void enqueue(final Ticket ticket) {
+
+        Deque<Ticket> queue = queues.get(ticket.caller);
+
+        if (queue == null) {
+            queue = new ArrayDeque<Ticket>();
+            queues.put(ticket.caller, queue);
+        }
+
+        queue.addLast(ticket);
+        queued++;
+    }
+
+    private void dequeue(final Ticket ticket) {
+
+        Deque<Ticket> queue = queues.get(ticket.caller);
+
+        if (queue != null && queue.remove(ticket)) {
+            queued--;
+
+            if (queue.isEmpty())
+                queues.remove(ticket.caller);
+        }
+
+        // the removed ticket may have blocked the queue of its caller
+        changed.signalAll();
+    }
+
+    /**
+     * Admits waiting operations round-robin over the callers, the operations of a caller are admitted in order
+     */
+    private void dispatch() {
+
+        boolean admitted = false;
+
+        while (running < maxRunning && !queues.isEmpty()) {
+
+            Ticket next = null;
+
+            for (Deque<Ticket> queue : queues.values()) {
+                if (fits(queue.peekFirst())) {
+                    next = queue.peekFirst();
+                    break;
+                }
+            }
+
+            if (next == null || !tokens.tryAcquire())
+                break;
+
+            Deque<Ticket> queue = queues.remove(next.caller);
+            queue.removeFirst();
+            queued--;
+
+            if (!queue.isEmpty())
+                queues.put(next.caller, queue);
+
+            running++;
+            increment(hosts, next.host, 1);
+            increment(datastores, next.datastore, 1);
+
+            next.granted = true;
+            admitted = true;
+        }
+
+        if (admitted)
+            changed.signalAll();
+    }
+
+    private boolean fits(final Ticket ticket) {
+        return count(hosts, ticket.host) < maxPerHost && count(datastores, ticket.datastore) < maxPerDatastore;
+    }
+
+    private void finish(final Ticket ticket) {
+
+        running--;
+        increment(hosts, ticket.host, -1);
+        increment(datastores, ticket.datastore, -1);
+
+        dispatch();
+        changed.signalAll();
+    }
+
+    private static int count(final Map<String, Integer> counts, final String key) {
+
+        if (key == null)
+            return 0;
+
+        Integer count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static void increment(final Map<String, Integer> counts, final String key, final int delta) {
+
+        if (key == null)
+            return;
+
+        int count = count(counts, key) + delta;
+
+        if (count > 0)
+            counts.put(key, count);
+        else
+            counts.remove(key);
+    }
+
+    /**
+     * Waiting or admitted operation
+     */
+    private static class Ticket {
+
+        private final String caller;
+        private final String host;
+        private final String datastore;
+        private boolean granted;
+
+        private Ticket(final String caller, final String host, final String datastore) {
+            this.caller = caller;
+            this.host = host == null ? null : host.toLowerCase();
+            this.datastore = datastore;
+        }
+    }
+
+    /**
+     * Permit of an admitted operation
+     */
+    public class Permit {
+
+        private final Ticket ticket;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final Ticket ticket) {
+            this.ticket = ticket;
+        }
+
+        /**
+         * Releases the permit, further calls are ignored
+         */
+        public void release() {
+
+            if (!released.compareAndSet(false, true))
+                return;
+
+            lock.lock();
+            try {
+                finish(ticket);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Token-bucket limiting the rate of started operations, the bucket holds up to one second of tokens
+     */
+    public static class TokenBucket {
+
+        private long rate;
+
+        private double available;
+
+        private long refilled = System.nanoTime();
+
+        public TokenBucket(final int perSecond) {
+            setRate(perSecond);
+            available = rate;
+        }
+
+        public synchronized void setRate(final int perSecond) {
+            refill();
+            rate = Math.max(1, perSecond);
+            available = Math.min(available, rate);
+        }
+
+        /**
+         * Takes a token if one is available
+         *
+         * @return If a token was taken
+         */
+        public synchronized boolean tryAcquire() {
+
+            refill();
+
+            if (available < 1)
+                return false;
+
+            available--;
+            return true;
+        }
+
+        /**
+         * Returns the time until the next token is available
+         *
+         * @return The time in nanoseconds, 0 if a token is available
+         */
+        public synchronized long nanosUntilAvailable() {
+
+            refill();
+
+            return available >= 1 ? 0 : (long) Math.ceil((1 - available) * TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        private void refill() {
+
+            long now = System.nanoTime();
+
+            available = Math.min(rate, available + (now - refilled) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+        }
+    }
+}
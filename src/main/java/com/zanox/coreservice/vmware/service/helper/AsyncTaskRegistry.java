@@ -0,0 +1,188 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.zanox.coreservice.vmware.service.exception.AdmissionRejectedException;
+import com.zanox.coreservice.vmware.service.vo.Configuration;
+import com.zanox.coreservice.vmware.service.vo.TaskStatus;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of asynchronous tasks
+ *
+ * Long-running operations are executed by a worker-pool, the caller gets a task-status to poll instead of blocking a request-thread.
+ * Finished tasks are kept for the retention-time. The queue of the pool is bounded, a task is rejected if the queue is full or more than
+ * maxQueuedOperations tasks are waiting.
+ */
+public class AsyncTaskRegistry {
+
+    private static Logger logger = Logger.getLogger(AsyncTaskRegistry.class.getName());
+
+    private static AsyncTaskRegistry registry;
+
+    private static final ThreadLocal<TaskStatus> CURRENT = new ThreadLocal<TaskStatus>();
+
+    private final ConcurrentMap<String, TaskStatus> tasks = new ConcurrentHashMap<String, TaskStatus>();
+
+    private final ThreadPoolExecutor workers;
+
+    private AsyncTaskRegistry() {
+
+        workers = new ThreadPoolExecutor(Constants.ASYNC_WORKERS, Constants.ASYNC_WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Constants.ASYNC_QUEUE_SIZE), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vmware-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Metrics.getInstance().register("tasks.async", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getActiveTasks();
+            }
+        });
+    }
+
+    /**
+     * Returns the instance of the registry
+     *
+     * @return The registry
+     */
+    public static synchronized AsyncTaskRegistry getInstance() {
+
+        if (registry == null) {
+            registry = new AsyncTaskRegistry();
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the status of the asynchronous task that is executed by the current thread
+     *
+     * @return The status or null if the current thread does not execute an asynchronous task
+     */
+    public static TaskStatus current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Submits an operation
+     *
+     * @param operation Name of the operation (e.g. createVM)
+     * @param target Name of the target of the operation (e.g. the VM-name)
+     * @param job The operation, its result is stored in the status
+     * @return The status of the task
+     * @throws AdmissionRejectedException If too many tasks are waiting
+     */
+    public TaskStatus submit(final String operation, final String target, final Callable<?> job) throws AdmissionRejectedException {
+
+        purge();
+
+        int backlog = workers.getQueue().size();
+
+        if (backlog >= Configuration.getInstance().getMaxQueuedOperations())
+            throw new AdmissionRejectedException("Too many asynchronous tasks queued: " + backlog);
+
+        final TaskStatus status = new TaskStatus(UUID.randomUUID().toString(), operation, target);
+        tasks.put(status.getId(), status);
+
+        // the operations of the task are queued for the caller that submitted it
+        final String caller = AdmissionController.getCaller();
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                CURRENT.set(status);
+                AdmissionController.setCaller(caller);
+                status.running();
+
+                try {
+                    status.succeeded(job.call());
+                } catch (Exception exc) {
+                    logger.log(Level.FINE, operation + " of " + target + " failed", exc);
+                    status.failed(exc);
+                } finally {
+                    CURRENT.remove();
+                    AdmissionController.setCaller(null);
+                }
+            }
+        };
+
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException exc) {
+            tasks.remove(status.getId());
+            throw new AdmissionRejectedException("Too many asynchronous tasks queued: " + workers.getQueue().size());
+        }
+
+        return status;
+    }
+
+    /**
+     * Returns the status of a task
+     *
+     * @param id ID of the task
+     * @return The status or null if the task is unknown or expired
+     */
+    public TaskStatus get(final String id) {
+        return id == null ? null : tasks.get(id);
+    }
+
+    /**
+     * Returns the number of queued and running tasks
+     *
+     * @return The number of tasks
+     */
+    public int getActiveTasks() {
+
+        int active = 0;
+        for (TaskStatus status : tasks.values()) {
+            if (!status.isDone())
+                active++;
+        }
+
+        return active;
+    }
+
+    /**
+     * Stops the worker-pool, running tasks are interrupted
+     */
+    public void shutdown() {
+
+        synchronized (AsyncTaskRegistry.class) {
+            if (registry == this)
+                registry = null;
+        }
+
+        workers.shutdownNow();
+    }
+
+    private void purge() {
+
+        long expired = System.currentTimeMillis() - Constants.ASYNC_TASK_RETENTION;
+
+        Iterator<TaskStatus> iterator = tasks.values().iterator();
+        while (iterator.hasNext()) {
+            TaskStatus status = iterator.next();
+
+            if (status.isDone() && status.getFinished() < expired)
+                iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.zanox.coreservice.vmware.service.vo.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the external configuration-file and reloads the configuration when it changes
+ *
+ * The directory of the file is watched, so replacing the file (e.g. by an editor or a deployment-tool) is detected as well. Events are
+ * collected for a short delay before the configuration is reloaded once.
+ */
+public class ConfigurationWatcher implements Runnable {
+
+    private static Logger logger = Logger.getLogger(ConfigurationWatcher.class.getName());
+
+    private final File file;
+
+    private volatile boolean running = false;
+
+    private volatile WatchService watchService;
+
+    private volatile Thread thread;
+
+    /**
+     * Constructor of <code>ConfigurationWatcher</code>
+     *
+     * @param file The configuration-file
+     */
+    public ConfigurationWatcher(final File file) {
+        this.file = file.getAbsoluteFile();
+    }
+
+    /**
+     * Starts the background-thread if it is not running yet
+     */
+    public synchronized void start() {
+
+        if (running)
+            return;
+
+        running = true;
+
+        thread = new Thread(this, "vmware-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background-thread
+     */
+    public synchronized void stop() {
+
+        if (!running)
+            return;
+
+        running = false;
+
+        close(watchService);
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+
+        Path directory = file.getParentFile().toPath();
+        Path name = file.toPath().getFileName();
+
+        while (isCurrent()) {
+
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.OVERFLOW);
+
+                logger.info("Watching " + file);
+
+                // changes while the watcher was not registered
+                Configuration.reload();
+
+                while (isCurrent()) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context()))
+                            changed = true;
+                    }
+
+                    if (!key.reset())
+                        throw new IOException(directory + " is not accessible anymore");
+
+                    if (changed) {
+                        // an editor may write the file in several steps
+                        Thread.sleep(Constants.CONFIG_RELOAD_DELAY);
+                        drain(watchService);
+
+                        Configuration.reload();
+                    }
+                }
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException exc) {
+                // stopped
+            } catch (Exception exc) {
+                if (isCurrent())
+                    logger.log(Level.WARNING, "Watching " + file + " failed, retrying", exc);
+            } finally {
+                close(watchService);
+            }
+
+            if (isCurrent())
+                sleep(Constants.CONFIG_WATCH_RETRY);
+        }
+    }
+
+    private boolean isCurrent() {
+        return running && thread == Thread.currentThread();
+    }
+
+    private static void drain(final WatchService watchService) {
+
+        WatchKey key;
+
+        while ((key = watchService.poll()) != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    private static void close(final WatchService watchService) {
+
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } catch (IOException exc) {
+            logger.log(Level.FINE, "Close failed", exc);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
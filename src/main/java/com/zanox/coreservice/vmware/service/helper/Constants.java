@@ -19,6 +19,25 @@ public class Constants {
 	public static final String NET_NAME = "netName";
 	public static final String NIC_NAME = "nicName";
 	public static final String VIRTUAL_NETWORK = "virtualNetwork";
+	public static final String RETRIEVE_MAX_OBJECTS = "retrieveMaxObjects";
+	public static final String MAX_POWER_OPERATIONS = "maxPowerOperations";
+	public static final String MAX_OPERATIONS = "maxOperations";
+	public static final String MAX_OPERATIONS_PER_HOST = "maxOperationsPerHost";
+	public static final String MAX_OPERATIONS_PER_DATASTORE = "maxOperationsPerDatastore";
+	public static final String MAX_QUEUED_OPERATIONS = "maxQueuedOperations";
+	public static final String OPERATIONS_PER_SECOND = "operationsPerSecond";
+	public static final String POWER_STATE_BATCH_WINDOW = "powerStateBatchWindow";
+	public static final String TASK_TIMEOUT = "taskTimeout";
+	public static final String TEMPLATE = "template";
+	public static final String TEMPLATE_SNAPSHOT = "templateSnapshot";
+
+	// Additional vCenter-endpoints, endpoints=eu,us with endpoint.<name>.url, .username, .password and .datacenter
+	public static final String ENDPOINTS = "endpoints";
+	public static final String ENDPOINT_PREFIX = "endpoint.";
+	public static final String DEFAULT_ENDPOINT = "default";
+
+	// System-property with the path of an external vmware.properties
+	public static final String CONFIG_FILE = "vmware.config";
 
 	// General constants
 	public static String ASSIGNED = "assigned";
@@ -26,4 +45,63 @@ public class Constants {
 	public static int SCSI_CONTROLLER_KEY = 1000;
 	public static int ZERO_KEY = 0;
 	public static String GENERATED = "generated";
+
+	// Session-pool
+	public static final int SESSION_POOL_SIZE = 10;
+	public static final long SESSION_IDLE_TIMEOUT = 15 * 60 * 1000L;
+	public static final long SESSION_KEEP_ALIVE_INTERVAL = 5 * 60 * 1000L;
+	public static final long SESSION_VALIDATION_INTERVAL = 60 * 1000L;
+	public static final long SESSION_BORROW_TIMEOUT = 30 * 1000L;
+
+	// Inventory-index
+	public static final long INVENTORY_INDEX_TTL = 10 * 60 * 1000L;
+	public static final int INVENTORY_INDEX_SIZE = 20000;
+
+	// Portgroup-cache
+	public static final long PORTGROUP_CACHE_TTL = 60 * 60 * 1000L;
+	public static final long PORTGROUP_CACHE_MISS_INTERVAL = 10 * 1000L;
+
+	// PropertyCollector
+	public static final int DEFAULT_RETRIEVE_MAX_OBJECTS = 1000;
+
+	// Tasks
+	public static final long TASK_POLL_INTERVAL = 500L;
+	public static final int TASK_TRACKER_WAIT = 60;
+	public static final long TASK_TRACKER_RETRY = 10 * 1000L;
+	public static final long TASK_TRACKER_CONNECT_TIMEOUT = 5 * 1000L;
+	public static final int DEFAULT_TASK_TIMEOUT = 30 * 60;
+	public static final int DEFAULT_MAX_POWER_OPERATIONS = 20;
+	public static final int ASYNC_WORKERS = 20;
+	public static final int ASYNC_QUEUE_SIZE = 1000;
+	public static final int FAN_OUT_WORKERS = 10;
+	public static final int POWER_OPERATION_WORKERS = 20;
+	public static final long ASYNC_TASK_RETENTION = 60 * 60 * 1000L;
+
+	// Admission-control of mutating operations
+	public static final int DEFAULT_MAX_OPERATIONS = 20;
+	public static final int DEFAULT_MAX_OPERATIONS_PER_HOST = 4;
+	public static final int DEFAULT_MAX_OPERATIONS_PER_DATASTORE = 8;
+	public static final int DEFAULT_MAX_QUEUED_OPERATIONS = 200;
+	public static final int DEFAULT_OPERATIONS_PER_SECOND = 10;
+	public static final long ADMISSION_TIMEOUT = 5 * 60 * 1000L;
+	public static final long ADMISSION_RETRY_AFTER = 10 * 1000L;
+	public static final String CALLER_HEADER = "X-Caller";
+
+	// Coalescing of reads, power-state-lookups are not batched by default
+	public static final int DEFAULT_POWER_STATE_BATCH_WINDOW = 0;
+
+	// Inventory-mirror
+	public static final int INVENTORY_MIRROR_WAIT = 60;
+	public static final long INVENTORY_MIRROR_RETRY = 10 * 1000L;
+
+	// Event-stream, events are dropped if a client reads slower than the queue fills
+	public static final int EVENT_QUEUE_SIZE = 10000;
+	public static final long EVENT_KEEP_ALIVE = 30 * 1000L;
+
+	// Event-streams are closed after this time, so they do not hold a request-thread forever, SSE-clients reconnect
+	public static final long EVENT_STREAM_MAX_AGE = 30 * 60 * 1000L;
+
+	// Configuration-watcher
+	public static final long CONFIG_RELOAD_DELAY = 500L;
+	public static final long CONFIG_WATCH_RETRY = 10 * 1000L;
 }
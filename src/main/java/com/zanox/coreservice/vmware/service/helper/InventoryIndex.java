@@ -0,0 +1,274 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.mo.InventoryNavigator;
+import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.MorUtil;
+
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of managed-entities by type and name
+ *
+ * Only the ManagedObjectReference is cached, it is valid for every session of the same vSphere-server. Entries expire after the
+ * time-to-live, every type keeps at most <code>maxEntries</code> entries (least recently used are evicted). A miss falls back to a search
+ * in the inventory. A hit is checked by reading the name of the cached reference, an entity deleted or renamed in the meantime is
+ * removed from the index and searched again.
+ */
+public class InventoryIndex {
+
+    private static Logger logger = Logger.getLogger(InventoryIndex.class.getName());
+
+    private final long ttl;
+
+    private final int maxEntries;
+
+    private final Map<String, Map<String, IndexEntry>> types = new HashMap<String, Map<String, IndexEntry>>();
+
+    /**
+     * Constructor of <code>InventoryIndex</code>
+     *
+     * @param ttl Time-to-live of an entry in ms
+     * @param maxEntries Maximum number of entries per type
+     */
+    public InventoryIndex(final long ttl, final int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Finds a managed-entity by name in the whole inventory
+     *
+     * @param si The server-instance used for the search and the returned entity
+     * @param type Type of the entity (e.g. VirtualMachine)
+     * @param name Name of the entity
+     * @return The entity or null if not found
+     * @throws RemoteException If the search fails
+     */
+    public ManagedEntity find(final ServiceInstance si, final String type, final String name) throws RemoteException {
+        return find(si, si.getRootFolder(), type, name, false);
+    }
+
+    /**
+     * Finds a managed-entity by name in the whole inventory
+     *
+     * @param si The server-instance used for the search and the returned entity
+     * @param type Type of the entity (e.g. VirtualMachine)
+     * @param name Name of the entity
+     * @param consistent If true the index is bypassed and the inventory is searched
+     * @return The entity or null if not found
+     * @throws RemoteException If the search fails
+     */
+    public ManagedEntity find(final ServiceInstance si, final String type, final String name, final boolean consistent) throws RemoteException {
+        return find(si, si.getRootFolder(), type, name, consistent);
+    }
+
+    /**
+     * Finds a managed-entity by name below a parent-entity
+     *
+     * @param si The server-instance used for the search and the returned entity
+     * @param parent The entity to search in (e.g. a Datacenter)
+     * @param type Type of the entity (e.g. ResourcePool)
+     * @param name Name of the entity
+     * @return The entity or null if not found
+     * @throws RemoteException If the search fails
+     */
+    public ManagedEntity find(final ServiceInstance si, final ManagedEntity parent, final String type, final String name) throws RemoteException {
+        return find(si, parent, type, name, false);
+    }
+
+    /**
+     * Finds a managed-entity by name below a parent-entity
+     *
+     * @param si The server-instance used for the search and the returned entity
+     * @param parent The entity to search in (e.g. a Datacenter)
+     * @param type Type of the entity (e.g. ResourcePool)
+     * @param name Name of the entity
+     * @param consistent If true the index is bypassed and the inventory is searched
+     * @return The entity or null if not found
+     * @throws RemoteException If the search fails
+     */
+    public ManagedEntity find(final ServiceInstance si, final ManagedEntity parent, final String type, final String name,
+                              final boolean consistent) throws RemoteException {
+
+        if (name == null)
+            return null;
+
+        String key = key(si, parent, name);
+
+        ManagedObjectReference mor = consistent ? null : get(type, key);
+
+        if (mor != null) {
+            if (exists(si, mor, name))
+                return MorUtil.createExactManagedEntity(si.getServerConnection(), mor);
+
+            logger.log(Level.FINE, "Stale index-entry for " + type + " " + name);
+            invalidate(mor);
+        } else {
+            logger.log(Level.FINE, "Index-miss for " + type + " " + name);
+        }
+
+        ManagedEntity entity = new InventoryNavigator(parent).searchManagedEntity(type, name);
+
+        if (entity != null)
+            put(type, key, entity.getMOR());
+
+        return entity;
+    }
+
+    /**
+     * Adds an entity to the index, e.g. after it has been created
+     *
+     * @param si The server-instance
+     * @param parent The entity the name is unique in, null for the whole inventory
+     * @param type Type of the entity
+     * @param name Name of the entity
+     * @param mor Reference of the entity
+     */
+    public void put(final ServiceInstance si, final ManagedEntity parent, final String type, final String name, final ManagedObjectReference mor) {
+        put(type, key(si, parent, name), mor);
+    }
+
+    /**
+     * Removes all entries of an entity-name, e.g. after the entity was deleted or renamed
+     *
+     * @param type Type of the entity
+     * @param name Name of the entity
+     */
+    public synchronized void invalidate(final String type, final String name) {
+
+        Map<String, IndexEntry> entries = types.get(type);
+
+        if (entries == null || name == null)
+            return;
+
+        Iterator<Map.Entry<String, IndexEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next().getKey();
+
+            if (key.equals(name) || key.endsWith("/" + name))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all entries of a managed-object, e.g. after it was deleted
+     *
+     * @param mor Reference of the entity
+     */
+    public synchronized void invalidate(final ManagedObjectReference mor) {
+
+        for (Map<String, IndexEntry> entries : types.values()) {
+            Iterator<IndexEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().mor.getVal().equals(mor.getVal()))
+                    iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void clear() {
+        types.clear();
+    }
+
+    /**
+     * Checks if a cached reference still exists and has the indexed name
+     */
+    private static boolean exists(final ServiceInstance si, final ManagedObjectReference mor, final String name) throws RemoteException {
+
+        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(Collections.singletonList(mor),
+                PropertyCollectorHelper.createPropertySpec(mor.getType(), "name"));
+
+        try {
+            RetrieveResult result = si.getPropertyCollector().retrievePropertiesEx(new PropertyFilterSpec[]{filterSpec}, new RetrieveOptions());
+
+            if (result == null || result.getObjects() == null)
+                return false;
+
+            for (ObjectContent content : result.getObjects()) {
+                if (name.equals(PropertyCollectorHelper.toMap(content.getPropSet()).get("name")))
+                    return true;
+            }
+
+            return false;
+        } catch (ManagedObjectNotFound exc) {
+            return false;
+        }
+    }
+
+    private synchronized ManagedObjectReference get(final String type, final String key) {
+
+        Map<String, IndexEntry> entries = types.get(type);
+
+        if (entries == null)
+            return null;
+
+        IndexEntry entry = entries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (System.currentTimeMillis() - entry.created > ttl) {
+            entries.remove(key);
+            return null;
+        }
+
+        return entry.mor;
+    }
+
+    private synchronized void put(final String type, final String key, final ManagedObjectReference mor) {
+
+        Map<String, IndexEntry> entries = types.get(type);
+
+        if (entries == null) {
+            entries = new LinkedHashMap<String, IndexEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, IndexEntry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            types.put(type, entries);
+        }
+
+        entries.put(key, new IndexEntry(mor));
+    }
+
+    private static String key(final ServiceInstance si, final ManagedEntity parent, final String name) {
+
+        if (parent == null || parent.getMOR().getVal().equals(si.getRootFolder().getMOR().getVal()))
+            return name;
+
+        return parent.getMOR().getVal() + "/" + name;
+    }
+
+    /**
+     * Cached reference with its creation-time
+     */
+    private static class IndexEntry {
+
+        private final ManagedObjectReference mor;
+
+        private final long created;
+
+        private IndexEntry(final ManagedObjectReference mor) {
+            this.mor = mor;
+            this.created = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,648 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualEthernetCard;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.zanox.coreservice.vmware.service.enums.VmEventType;
+import com.zanox.coreservice.vmware.service.vo.VmEvent;
+import com.zanox.coreservice.vmware.service.vo.VmInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local mirror of the VM-inventory
+ *
+ * A background-thread keeps a PropertyCollector-filter on a ContainerView of all VMs, HostSystems, ResourcePools, Networks and
+ * distributed virtual switches. The first WaitForUpdatesEx-call returns the complete inventory, later calls only return the changes since the last version.
+ * Changed config-versions of switches and renamed portgroups invalidate the portgroup-cache. Registered listeners are notified of
+ * every change of a VM while the mirror is in sync.
+ */
+public class InventoryMirror implements Runnable {
+
+    private static Logger logger = Logger.getLogger(InventoryMirror.class.getName());
+
+    private static final String[] VM_PROPERTIES = {"name", "runtime.powerState", "overallStatus", "runtime.host", "config.hardware.device", "network",
+            "resourcePool", "config.changeVersion"};
+
+    private static final String[] DEVICE_PROPERTIES = {"config.hardware.device", "network"};
+
+    private final SessionPool sessionPool;
+
+    private final InventoryIndex inventoryIndex;
+
+    private final PortgroupCache portgroupCache;
+
+    private final ConcurrentMap<String, VmRecord> vms = new ConcurrentHashMap<String, VmRecord>();
+
+    private final ConcurrentMap<String, String> vmsByName = new ConcurrentHashMap<String, String>();
+
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private volatile boolean synced = false;
+
+    private volatile boolean running = false;
+
+    private volatile PropertyCollector collector;
+
+    private volatile Thread thread;
+
+    /**
+     * Constructor of <code>InventoryMirror</code>
+     *
+     * @param sessionPool Pool to create the dedicated session of the mirror
+     * @param inventoryIndex Index to invalidate on renamed and deleted VMs
+     * @param portgroupCache Cache to invalidate on changed switches and renamed portgroups
+     */
+    public InventoryMirror(final SessionPool sessionPool, final InventoryIndex inventoryIndex, final PortgroupCache portgroupCache) {
+        this.sessionPool = sessionPool;
+        this.inventoryIndex = inventoryIndex;
+        this.portgroupCache = portgroupCache;
+    }
+
+    /**
+     * Starts the background-thread if it is not running yet
+     */
+    public synchronized void start() {
+
+        if (running)
+            return;
+
+        running = true;
+
+        thread = new Thread(this, "vmware-inventory-mirror");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background-thread, the registered listeners are notified and removed
+     */
+    public synchronized void stop() {
+
+        if (!running)
+            return;
+
+        running = false;
+        synced = false;
+
+        for (Listener listener : listeners) {
+            try {
+                listener.stopped();
+            } catch (RuntimeException exc) {
+                logger.log(Level.WARNING, "Listener failed", exc);
+            }
+        }
+
+        listeners.clear();
+
+        PropertyCollector pc = collector;
+        if (pc != null) {
+            try {
+                pc.cancelWaitForUpdates();
+            } catch (Exception exc) {
+                logger.log(Level.FINE, "Cancel failed", exc);
+            }
+        }
+
+        thread.interrupt();
+    }
+
+    /**
+     * Registers a listener, if the mirror is already in sync the listener gets the current state right away
+     *
+     * @param listener The listener
+     */
+    public void addListener(final Listener listener) {
+
+        listeners.add(listener);
+
+        // a VM changed meanwhile is reported twice, but never missed
+        if (synced)
+            listener.synced(getVms());
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Returns if the mirror contains the complete inventory and is connected
+     *
+     * @return If the mirror is in sync
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Returns if a VM with the given name exists
+     *
+     * @param vmName Name of the VM
+     * @return If the VM exists
+     */
+    public boolean containsVm(final String vmName) {
+        return vmName != null && vmsByName.containsKey(vmName);
+    }
+
+    /**
+     * Returns the state of a VM
+     *
+     * @param vmName Name of the VM
+     * @return The state or null if the VM does not exist
+     */
+    public VmInfo getVm(final String vmName) {
+
+        if (vmName == null)
+            return null;
+
+        String mor = vmsByName.get(vmName);
+
+        if (mor == null)
+            return null;
+
+        VmRecord record = vms.get(mor);
+
+        if (record == null)
+            return null;
+
+        return toVmInfo(record);
+    }
+
+    /**
+     * Returns the reference of a VM
+     *
+     * @param vmName Name of the VM
+     * @return The reference or null if the VM does not exist
+     */
+    public ManagedObjectReference getVmReference(final String vmName) {
+
+        String mor = vmName == null ? null : vmsByName.get(vmName);
+
+        if (mor == null)
+            return null;
+
+        ManagedObjectReference reference = new ManagedObjectReference();
+        reference.setType("VirtualMachine");
+        reference.setVal(mor);
+
+        return reference;
+    }
+
+    /**
+     * Returns the state of all VMs
+     *
+     * @return The states in no particular order
+     */
+    public List<VmInfo> getVms() {
+
+        List<VmInfo> result = new ArrayList<VmInfo>(vms.size());
+
+        for (VmRecord record : vms.values()) {
+            if (record.name != null)
+                result.add(toVmInfo(record));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void run() {
+
+        while (isCurrent()) {
+
+            ServiceInstance si = null;
+            ContainerView view = null;
+
+            try {
+                si = sessionPool.createSession();
+
+                collector = si.getPropertyCollector().createPropertyCollector();
+                view = PropertyCollectorHelper.createContainerView(si, "VirtualMachine", "HostSystem", "ResourcePool", "Network",
+                        "DistributedVirtualSwitch");
+
+                PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                        PropertyCollectorHelper.createPropertySpec("VirtualMachine", VM_PROPERTIES),
+                        PropertyCollectorHelper.createPropertySpec("HostSystem", "name"),
+                        PropertyCollectorHelper.createPropertySpec("ResourcePool", "name"),
+                        PropertyCollectorHelper.createPropertySpec("Network", "name"),
+                        PropertyCollectorHelper.createPropertySpec("DistributedVirtualSwitch", "config.configVersion"));
+
+                collector.createFilter(filterSpec, true);
+
+                WaitOptions waitOptions = new WaitOptions();
+                waitOptions.setMaxWaitSeconds(Constants.INVENTORY_MIRROR_WAIT);
+
+                clear();
+
+                String version = "";
+
+                while (isCurrent()) {
+                    UpdateSet updateSet = collector.waitForUpdatesEx(version, waitOptions);
+
+                    if (updateSet == null)
+                        continue;
+
+                    apply(updateSet);
+                    version = updateSet.getVersion();
+
+                    if (!synced && !Boolean.TRUE.equals(updateSet.getTruncated())) {
+                        logger.info("Inventory-mirror in sync, " + vms.size() + " VMs");
+                        synced = true;
+
+                        fireSynced();
+                    }
+                }
+            } catch (Exception exc) {
+                if (isCurrent())
+                    logger.log(Level.WARNING, "Inventory-mirror lost connection, retrying", exc);
+            } finally {
+                if (isCurrent())
+                    synced = false;
+
+                destroy(si, view);
+            }
+
+            if (isCurrent())
+                sleep(Constants.INVENTORY_MIRROR_RETRY);
+        }
+    }
+
+    private boolean isCurrent() {
+        return running && thread == Thread.currentThread();
+    }
+
+    private void apply(final UpdateSet updateSet) throws Exception {
+
+        if (updateSet.getFilterSet() == null)
+            return;
+
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+
+            if (filterUpdate.getObjectSet() == null)
+                continue;
+
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+
+                ManagedObjectReference mor = objectUpdate.getObj();
+
+                if ("VirtualMachine".equals(mor.getType()))
+                    applyVm(objectUpdate);
+                else if (mor.getType().endsWith("DistributedVirtualSwitch"))
+                    applySwitch(objectUpdate);
+                else
+                    applyName(objectUpdate);
+            }
+        }
+    }
+
+    private void applyName(final ObjectUpdate objectUpdate) {
+
+        String mor = objectUpdate.getObj().getVal();
+
+        if (objectUpdate.getKind() == ObjectUpdateKind.leave) {
+            names.remove(mor);
+            return;
+        }
+
+        if (objectUpdate.getChangeSet() == null)
+            return;
+
+        for (PropertyChange change : objectUpdate.getChangeSet()) {
+            if ("name".equals(change.getName()) && change.getVal() != null) {
+                String previous = names.put(mor, (String) change.getVal());
+
+                if (previous != null && !previous.equals(change.getVal()) && "DistributedVirtualPortgroup".equals(objectUpdate.getObj().getType()))
+                    portgroupCache.invalidate();
+            }
+        }
+    }
+
+    private void applySwitch(final ObjectUpdate objectUpdate) {
+
+        if (objectUpdate.getKind() == ObjectUpdateKind.leave) {
+            portgroupCache.switchChanged(objectUpdate.getObj(), null);
+            return;
+        }
+
+        if (objectUpdate.getChangeSet() == null)
+            return;
+
+        for (PropertyChange change : objectUpdate.getChangeSet()) {
+            if ("config.configVersion".equals(change.getName()))
+                portgroupCache.switchChanged(objectUpdate.getObj(), (String) change.getVal());
+        }
+    }
+
+    private void applyVm(final ObjectUpdate objectUpdate) throws Exception {
+
+        ManagedObjectReference mor = objectUpdate.getObj();
+        VmRecord previous = vms.get(mor.getVal());
+
+        if (objectUpdate.getKind() == ObjectUpdateKind.leave) {
+            vms.remove(mor.getVal());
+
+            if (previous != null && previous.name != null)
+                vmsByName.remove(previous.name, mor.getVal());
+
+            inventoryIndex.invalidate(mor);
+
+            if (synced && previous != null && previous.name != null)
+                fire(new VmEvent(VmEventType.REMOVED, toVmInfo(previous), new ArrayList<String>()));
+
+            return;
+        }
+
+        VmRecord record = previous == null ? new VmRecord(mor.getVal()) : previous.copy();
+        boolean refetch = false;
+
+        if (objectUpdate.getChangeSet() != null) {
+            for (PropertyChange change : objectUpdate.getChangeSet()) {
+                Object value = change.getOp() == PropertyChangeOp.remove ? null : PropertyCollectorHelper.convert(change.getVal());
+
+                if (!record.set(change.getName(), value))
+                    refetch = true;
+            }
+        }
+
+        // changes of single array-elements (e.g. config.hardware.device[4000]) are reported with their own path
+        if (refetch)
+            refetchDevices(mor, record);
+
+        vms.put(mor.getVal(), record);
+
+        if (previous != null && previous.name != null && !previous.name.equals(record.name)) {
+            vmsByName.remove(previous.name, mor.getVal());
+            inventoryIndex.invalidate("VirtualMachine", previous.name);
+        }
+
+        if (record.name != null)
+            vmsByName.put(record.name, mor.getVal());
+
+        // the initial inventory is reported by fireSynced
+        if (synced && !listeners.isEmpty())
+            fireChanged(previous, record);
+    }
+
+    private void fireChanged(final VmRecord previous, final VmRecord record) {
+
+        if (record.name == null)
+            return;
+
+        if (previous == null || previous.name == null) {
+            fire(new VmEvent(VmEventType.CREATED, toVmInfo(record), new ArrayList<String>()));
+            return;
+        }
+
+        List<String> changes = new ArrayList<String>();
+
+        if (!equal(previous.name, record.name))
+            changes.add("name");
+        if (!equal(previous.powerState, record.powerState))
+            changes.add("powerState");
+        if (!equal(previous.overallStatus, record.overallStatus))
+            changes.add("overallStatus");
+        if (!equal(previous.host, record.host))
+            changes.add("host");
+        if (!equal(previous.resourcePool, record.resourcePool))
+            changes.add("resourcePool");
+        if (!equal(previous.changeVersion, record.changeVersion) || !previous.macAddresses.equals(record.macAddresses)
+                || !previous.networks.equals(record.networks))
+            changes.add("config");
+
+        if (!changes.isEmpty())
+            fire(new VmEvent(VmEventType.CHANGED, toVmInfo(record), changes));
+    }
+
+    private void fire(final VmEvent event) {
+
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(event);
+            } catch (RuntimeException exc) {
+                logger.log(Level.WARNING, "Listener failed", exc);
+            }
+        }
+    }
+
+    private void fireSynced() {
+
+        if (listeners.isEmpty())
+            return;
+
+        List<VmInfo> current = getVms();
+
+        for (Listener listener : listeners) {
+            try {
+                listener.synced(current);
+            } catch (RuntimeException exc) {
+                logger.log(Level.WARNING, "Listener failed", exc);
+            }
+        }
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void refetchDevices(final ManagedObjectReference mor, final VmRecord record) throws Exception {
+
+        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(Collections.singletonList(mor),
+                PropertyCollectorHelper.createPropertySpec("VirtualMachine", DEVICE_PROPERTIES));
+
+        PropertyCollectorHelper.retrieve(collector, filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                new PropertyCollectorHelper.ContentHandler() {
+                    @Override
+                    public void handle(ObjectContent content) {
+                        Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+
+                        for (String path : DEVICE_PROPERTIES)
+                            record.set(path, properties.get(path));
+                    }
+                });
+    }
+
+    private VmInfo toVmInfo(final VmRecord record) {
+
+        List<String> portgroups = new ArrayList<String>();
+        for (String network : record.networks) {
+            String name = names.get(network);
+
+            if (name != null)
+                portgroups.add(name);
+        }
+
+        String hostName = record.host == null ? null : names.get(record.host);
+        String poolName = record.resourcePool == null ? null : names.get(record.resourcePool);
+
+        return new VmInfo(record.mor, record.name, record.powerState, record.overallStatus, hostName, poolName, record.macAddresses, portgroups);
+    }
+
+    private void clear() {
+        vms.clear();
+        vmsByName.clear();
+        names.clear();
+    }
+
+    private void destroy(final ServiceInstance si, final ContainerView view) {
+
+        try {
+            if (view != null)
+                view.destroyView();
+
+            if (collector != null)
+                collector.destroyPropertyCollector();
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Destroying the collector failed", exc);
+        }
+
+        collector = null;
+
+        if (si != null) {
+            try {
+                si.getServerConnection().logout();
+            } catch (Exception exc) {
+                logger.log(Level.FINE, "Logout failed", exc);
+            }
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mirrored properties of a VM, a record is copied before it is changed
+     */
+    private static class VmRecord {
+
+        private final String mor;
+        private String name;
+        private VirtualMachinePowerState powerState;
+        private ManagedEntityStatus overallStatus;
+        private String host;
+        private String resourcePool;
+        private String changeVersion;
+        private List<String> macAddresses = new ArrayList<String>();
+        private List<String> networks = new ArrayList<String>();
+
+        private VmRecord(final String mor) {
+            this.mor = mor;
+        }
+
+        private VmRecord copy() {
+            VmRecord record = new VmRecord(mor);
+            record.name = name;
+            record.powerState = powerState;
+            record.overallStatus = overallStatus;
+            record.host = host;
+            record.resourcePool = resourcePool;
+            record.changeVersion = changeVersion;
+            record.macAddresses = macAddresses;
+            record.networks = networks;
+            return record;
+        }
+
+        /**
+         * Sets a mirrored property
+         *
+         * @return false if the path is not a mirrored property
+         */
+        private boolean set(final String path, final Object value) {
+
+            if ("name".equals(path)) {
+                name = (String) value;
+            } else if ("runtime.powerState".equals(path)) {
+                powerState = (VirtualMachinePowerState) value;
+            } else if ("overallStatus".equals(path)) {
+                overallStatus = (ManagedEntityStatus) value;
+            } else if ("runtime.host".equals(path)) {
+                host = value == null ? null : ((ManagedObjectReference) value).getVal();
+            } else if ("resourcePool".equals(path)) {
+                resourcePool = value == null ? null : ((ManagedObjectReference) value).getVal();
+            } else if ("config.changeVersion".equals(path)) {
+                changeVersion = (String) value;
+            } else if ("config.hardware.device".equals(path)) {
+                List<String> addresses = new ArrayList<String>();
+
+                if (value != null) {
+                    for (VirtualDevice device : (VirtualDevice[]) value) {
+                        if (device instanceof VirtualEthernetCard)
+                            addresses.add(((VirtualEthernetCard) device).getMacAddress());
+                    }
+                }
+
+                macAddresses = addresses;
+            } else if ("network".equals(path)) {
+                List<String> mors = new ArrayList<String>();
+
+                if (value != null) {
+                    for (ManagedObjectReference mor : (ManagedObjectReference[]) value)
+                        mors.add(mor.getVal());
+                }
+
+                networks = mors;
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Listener of the changes of the mirrored VMs, it is called by the mirror-thread and must not block
+     */
+    public interface Listener {
+
+        /**
+         * Called with the state of all VMs when the mirror got in sync, changes while the mirror was out of sync are not reported
+         *
+         * @param vms The state of all VMs
+         */
+        void synced(List<VmInfo> vms);
+
+        /**
+         * Called for every change of a VM while the mirror is in sync
+         *
+         * @param event The change
+         */
+        void changed(VmEvent event);
+
+        /**
+         * Called when the mirror is stopped, e.g. because its endpoint was closed, no further changes are reported
+         */
+        void stopped();
+    }
+}
@@ -0,0 +1,83 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import java.util.Collection;
+
+/**
+ * Helper to write JSON without a JSON-library
+ */
+public class JsonHelper {
+
+    private JsonHelper() {
+    }
+
+    /**
+     * Returns a value as quoted and escaped JSON-string
+     *
+     * @param value The value, may be null
+     * @return The JSON-string or the literal null
+     */
+    public static String quote(final Object value) {
+
+        if (value == null)
+            return "null";
+
+        String s = value.toString();
+        StringBuilder builder = new StringBuilder(s.length() + 2);
+        builder.append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        builder.append(String.format("\\u%04x", (int) c));
+                    else
+                        builder.append(c);
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Returns a value as JSON: numbers and booleans literally, collections as arrays and everything else as string
+     *
+     * @param value The value, may be null
+     * @return The JSON-value
+     */
+    public static String value(final Object value) {
+
+        if (value instanceof Number || value instanceof Boolean)
+            return value.toString();
+
+        if (value instanceof Collection) {
+            StringBuilder builder = new StringBuilder("[");
+
+            for (Object element : (Collection<?>) value) {
+                if (builder.length() > 1)
+                    builder.append(',');
+                builder.append(value(element));
+            }
+
+            return builder.append(']').toString();
+        }
+
+        return quote(value);
+    }
+}
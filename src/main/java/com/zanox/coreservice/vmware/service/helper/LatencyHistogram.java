@@ -0,0 +1,112 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency-histogram with HDR-style log-linear buckets
+ *
+ * Values below 2^SUB_BITS are counted exactly, larger values are counted in 2^SUB_BITS linear sub-buckets per power of two, so every
+ * recorded value is reported with a relative error below 1 / 2^SUB_BITS (about 3%).
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value
+     *
+     * @param value The value (e.g. latency in microseconds), negative values are recorded as 0
+     */
+    public void record(final long value) {
+
+        long v = Math.max(0, value);
+
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value at a percentile
+     *
+     * @param percentile The percentile (0 - 100)
+     * @return The highest value of the bucket containing the percentile, 0 if no value was recorded
+     */
+    public long getPercentile(final double percentile) {
+
+        long n = count.get();
+
+        if (n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, percentile) / 100));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    private static int index(final long value) {
+
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(final int index) {
+
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
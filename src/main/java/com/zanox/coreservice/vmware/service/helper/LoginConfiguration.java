@@ -19,7 +19,8 @@ import java.util.logging.Logger;
 public class LoginConfiguration {
 
 	private String username;
-	private String password;
+	private volatile String password;
+	private volatile String decodedPassword;
 	private String vmwareUrl;
 
 	private static String SALT = "df34bn67he32";
@@ -28,6 +29,8 @@ public class LoginConfiguration {
 
 	private static Logger logger = Logger.getLogger(LoginConfiguration.class.getName());
 
+	private static volatile PBEKey pbeKey;
+
 	/**
 	 * Constructor of <code>LoginConfigurationMBean</code>
 	 * 
@@ -45,8 +48,30 @@ public class LoginConfiguration {
 		return username;
 	}
 
+	/**
+	 * Returns the plain password, it is decoded on first use and cached
+	 * 
+	 * @return The plain password
+	 */
 	public String getPassword() {
-		return decode(password);
+		String decoded = decodedPassword;
+
+		if (decoded == null) {
+			decoded = decode(password);
+			decodedPassword = decoded;
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Replaces the encrypted password, the cached plain password is discarded
+	 * 
+	 * @param password The new encrypted password
+	 */
+	public void reload(final String password) {
+		this.password = password;
+		this.decodedPassword = null;
 	}
 
 	public String getOriginalPassword() {
@@ -65,16 +90,10 @@ public class LoginConfiguration {
 	 * @throws Exception if something goes wrong
 	 */
 	public static String encode(final String password) throws Exception {
-		byte[] salt = SALT.substring(0, 8).getBytes();
-		int count = 15;
-		char[] masterPassword = MASTER.toCharArray();
 		byte[] passwordToEncode = password.getBytes("UTF-8");
-		PBEParameterSpec cipherSpec = new PBEParameterSpec(salt, count);
-		PBEKeySpec keySpec = new PBEKeySpec(masterPassword);
-		SecretKeyFactory factory = SecretKeyFactory.getInstance(ALGORITHM);
-		SecretKey cipherKey = factory.generateSecret(keySpec);
+		PBEKey key = getPBEKey();
 
-		return PBEUtils.encode64(passwordToEncode, ALGORITHM, cipherKey, cipherSpec);
+		return PBEUtils.encode64(passwordToEncode, ALGORITHM, key.cipherKey, key.cipherSpec);
 	}
 
 	/**
@@ -85,21 +104,51 @@ public class LoginConfiguration {
 	 */
 	public static String decode(final String password) {
 		try {
+			PBEKey key = getPBEKey();
+
+			return PBEUtils.decode64(password, ALGORITHM, key.cipherKey, key.cipherSpec);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Decoding-Error", e);
+			throw new RuntimeException("could not decode password " + e.getMessage()); // To change body of catch statement use File | Settings | File
+																						// Templates.
+		}
+	}
+
+	/**
+	 * Returns the key derived from the master-password, the key is derived once
+	 * 
+	 * @return The key and the parameter-spec
+	 * @throws Exception If the algorithm is not available
+	 */
+	private static PBEKey getPBEKey() throws Exception {
+		PBEKey key = pbeKey;
+
+		if (key == null) {
 			byte[] salt = SALT.substring(0, 8).getBytes();
 			int count = 15;
 			char[] masterPassword = MASTER.toCharArray();
 			PBEParameterSpec cipherSpec = new PBEParameterSpec(salt, count);
 			PBEKeySpec keySpec = new PBEKeySpec(masterPassword);
-			SecretKeyFactory factory;
-			factory = SecretKeyFactory.getInstance(ALGORITHM);
-			SecretKey cipherKey;
-			cipherKey = factory.generateSecret(keySpec);
+			SecretKeyFactory factory = SecretKeyFactory.getInstance(ALGORITHM);
 
-			return PBEUtils.decode64(password, ALGORITHM, cipherKey, cipherSpec);
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Decoding-Error", e);
-			throw new RuntimeException("could not decode password " + e.getMessage()); // To change body of catch statement use File | Settings | File
-																						// Templates.
+			key = new PBEKey(factory.generateSecret(keySpec), cipherSpec);
+			pbeKey = key;
+		}
+
+		return key;
+	}
+
+	/**
+	 * Derived key and parameter-spec, both are immutable and can be shared by all threads
+	 */
+	private static class PBEKey {
+
+		private final SecretKey cipherKey;
+		private final PBEParameterSpec cipherSpec;
+
+		private PBEKey(final SecretKey cipherKey, final PBEParameterSpec cipherSpec) {
+			this.cipherKey = cipherKey;
+			this.cipherSpec = cipherSpec;
 		}
 	}
 }
@@ -0,0 +1,350 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.zanox.coreservice.vmware.service.mbean.MetricsMBean;
+import com.zanox.coreservice.vmware.service.mbean.OperationMetricsMBean;
+import com.zanox.coreservice.vmware.service.mbean.impl.MetricsMBeanImpl;
+import com.zanox.coreservice.vmware.service.mbean.impl.OperationMetricsMBeanImpl;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the metrics of the service
+ *
+ * Records latency, errors and SOAP round-trips per operation, the wait-time for vSphere-sessions and gauges like the number of tracked
+ * tasks. Every operation is exposed as MBean, all metrics are available in the Prometheus text-format.
+ */
+public class Metrics {
+
+    private static Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    private static final String DOMAIN = "com.zanox.coreservice.vmware";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static Metrics metrics;
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    private final LatencyHistogram sessionWait = new LatencyHistogram();
+
+    private final AtomicLong soapCalls = new AtomicLong();
+
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private final ThreadLocal<List<Timer>> active = new ThreadLocal<List<Timer>>() {
+        @Override
+        protected List<Timer> initialValue() {
+            return new ArrayList<Timer>();
+        }
+    };
+
+    private Metrics() {
+        register("type=Metrics", new StandardMBean(new MetricsMBeanImpl(this), MetricsMBean.class, false));
+    }
+
+    /**
+     * Returns the instance of the registry
+     *
+     * @return The registry
+     */
+    public static synchronized Metrics getInstance() {
+
+        if (metrics == null) {
+            metrics = new Metrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Starts to measure an operation, the timer has to be stopped in a finally-block
+     *
+     * @param operation Name of the operation (e.g. helper.createVM)
+     * @return The timer
+     */
+    public Timer start(final String operation) {
+
+        Timer timer = new Timer(getOperation(operation));
+        active.get().add(timer);
+
+        return timer;
+    }
+
+    /**
+     * Counts a SOAP round-trip for all operations measured by the current thread
+     */
+    public void soapCall() {
+
+        soapCalls.incrementAndGet();
+
+        for (Timer timer : active.get())
+            timer.soapCalls++;
+    }
+
+    /**
+     * Records the time a thread waited for a vSphere-session
+     *
+     * @param micros The wait-time in microseconds, including a new login
+     */
+    public void sessionWait(final long micros) {
+        sessionWait.record(micros);
+    }
+
+    /**
+     * Registers a gauge, a gauge with the same name is replaced
+     *
+     * @param name Name of the gauge (e.g. sessions.active)
+     * @param gauge The gauge
+     */
+    public void register(final String name, final Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Returns an URL whose connections are counted as SOAP round-trips
+     *
+     * @param url The URL of the vSphere-server
+     * @return The counting URL
+     * @throws MalformedURLException If the URL is invalid
+     */
+    public URL countCalls(final URL url) throws MalformedURLException {
+
+        return new URL(null, url.toExternalForm(), new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                soapCall();
+                return new URL(u.toExternalForm()).openConnection();
+            }
+        });
+    }
+
+    public long getSoapCalls() {
+        return soapCalls.get();
+    }
+
+    public LatencyHistogram getSessionWait() {
+        return sessionWait;
+    }
+
+    /**
+     * Returns the metrics of all operations
+     *
+     * @return Map of operation-name to metrics, sorted by name
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<String, OperationMetrics>(operations);
+    }
+
+    /**
+     * Returns the current values of all gauges
+     *
+     * @return Map of gauge-name to value, sorted by name
+     */
+    public Map<String, Long> getGauges() {
+
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().getValue());
+            } catch (RuntimeException exc) {
+                logger.log(Level.FINE, "Gauge " + gauge.getKey() + " failed", exc);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text-format (version 0.0.4), latencies in seconds
+     *
+     * @return The metrics
+     */
+    public String toPrometheus() {
+
+        StringBuilder builder = new StringBuilder();
+        Map<String, OperationMetrics> snapshot = getOperations();
+
+        builder.append("# TYPE vmware_operation_seconds summary\n");
+        for (OperationMetrics operation : snapshot.values())
+            appendSummary(builder, "vmware_operation_seconds", "operation=\"" + operation.getName() + "\"", operation.getLatency());
+
+        builder.append("# TYPE vmware_operation_errors_total counter\n");
+        for (OperationMetrics operation : snapshot.values()) {
+            for (Map.Entry<String, Long> error : operation.getErrors().entrySet()) {
+                builder.append("vmware_operation_errors_total{operation=\"").append(operation.getName())
+                        .append("\",type=\"").append(error.getKey()).append("\"} ").append(error.getValue()).append('\n');
+            }
+        }
+
+        builder.append("# TYPE vmware_operation_soap_calls_total counter\n");
+        for (OperationMetrics operation : snapshot.values()) {
+            builder.append("vmware_operation_soap_calls_total{operation=\"").append(operation.getName()).append("\"} ")
+                    .append(operation.getSoapCalls()).append('\n');
+        }
+
+        builder.append("# TYPE vmware_operation_in_flight gauge\n");
+        for (OperationMetrics operation : snapshot.values()) {
+            builder.append("vmware_operation_in_flight{operation=\"").append(operation.getName()).append("\"} ")
+                    .append(operation.getInFlight()).append('\n');
+        }
+
+        builder.append("# TYPE vmware_soap_calls_total counter\n");
+        builder.append("vmware_soap_calls_total ").append(soapCalls.get()).append('\n');
+
+        builder.append("# TYPE vmware_session_wait_seconds summary\n");
+        appendSummary(builder, "vmware_session_wait_seconds", null, sessionWait);
+
+        for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+            String name = "vmware_" + gauge.getKey().replace('.', '_');
+            builder.append("# TYPE ").append(name).append(" gauge\n");
+            builder.append(name).append(' ').append(gauge.getValue()).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Unregisters all MBeans, the registry must not be used afterwards
+     */
+    public void shutdown() {
+
+        synchronized (Metrics.class) {
+            if (metrics == this)
+                metrics = null;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (Exception exc) {
+                    logger.log(Level.FINE, "Unregistering " + name + " failed", exc);
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    private OperationMetrics getOperation(final String name) {
+
+        OperationMetrics operation = operations.get(name);
+
+        if (operation == null) {
+            OperationMetrics created = new OperationMetrics(name);
+            operation = operations.putIfAbsent(name, created);
+
+            if (operation == null) {
+                operation = created;
+                register("type=Operation,name=" + ObjectName.quote(name),
+                        new StandardMBean(new OperationMetricsMBeanImpl(operation), OperationMetricsMBean.class, false));
+            }
+        }
+
+        return operation;
+    }
+
+    private void register(final String properties, final StandardMBean mbean) {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+
+            // a previous deployment may not have been undeployed cleanly
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+
+            server.registerMBean(mbean, name);
+
+            synchronized (registered) {
+                registered.add(name);
+            }
+        } catch (Exception exc) {
+            logger.log(Level.WARNING, "Registering MBean " + properties + " failed", exc);
+        }
+    }
+
+    private static void appendSummary(final StringBuilder builder, final String name, final String labels, final LatencyHistogram histogram) {
+
+        String prefix = labels == null ? "" : labels + ",";
+
+        for (double quantile : QUANTILES) {
+            builder.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(quantile * 100) / 1e6).append('\n');
+        }
+
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        builder.append(name).append("_sum").append(suffix).append(' ').append(histogram.getSum() / 1e6).append('\n');
+        builder.append(name).append("_count").append(suffix).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    /**
+     * Current value of a metric that is not recorded by the registry (e.g. the number of active sessions)
+     */
+    public interface Gauge {
+
+        long getValue();
+    }
+
+    /**
+     * Measures one execution of an operation
+     */
+    public class Timer {
+
+        private final OperationMetrics operation;
+
+        private final long start = System.nanoTime();
+
+        private long soapCalls;
+
+        private boolean stopped = false;
+
+        private Timer(final OperationMetrics operation) {
+            this.operation = operation;
+            operation.started();
+        }
+
+        /**
+         * Counts an error of the operation
+         *
+         * @param exc The error
+         * @return The error to rethrow it
+         */
+        public <T extends Throwable> T failed(final T exc) {
+            operation.failed(exc);
+            return exc;
+        }
+
+        /**
+         * Records the latency and the SOAP round-trips of the operation
+         */
+        public void stop() {
+
+            if (stopped)
+                return;
+
+            stopped = true;
+            active.get().remove(this);
+            operation.finished((System.nanoTime() - start) / 1000, soapCalls);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges lookups of different keys arriving within a short window into one load
+ *
+ * The first lookup of a window opens a batch and waits for the window (or until the batch is full), lookups arriving meanwhile are added
+ * to the batch. Then all keys are loaded with one call and every lookup gets its value. With a window of 0 every lookup is loaded on
+ * its own. If the load of a batch fails every lookup loads its key on its own, so only lookups whose own key fails get an exception.
+ */
+public class MicroBatcher<K, V> {
+
+    private final Loader<K, V> loader;
+
+    private final int maxSize;
+
+    private volatile long window;
+
+    private Batch<K, V> pending;
+
+    /**
+     * Constructor of <code>MicroBatcher</code>
+     *
+     * @param loader Loads the values of a batch
+     * @param window Time in milliseconds a batch collects keys, 0 to disable batching
+     * @param maxSize Maximum number of keys per batch
+     */
+    public MicroBatcher(final Loader<K, V> loader, final long window, final int maxSize) {
+        this.loader = loader;
+        this.window = window;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public void setWindow(final long window) {
+        this.window = window;
+    }
+
+    /**
+     * Returns the value of a key, loaded together with the other keys of the current window
+     *
+     * @param key The key
+     * @return The value or null if the loader returned none
+     * @throws Exception The exception of the loader for this key
+     */
+    public V get(final K key) throws Exception {
+
+        if (window <= 0)
+            return loader.load(Collections.singleton(key)).get(key);
+
+        Batch<K, V> batch;
+        boolean leader = false;
+
+        synchronized (this) {
+            if (pending == null) {
+                pending = new Batch<K, V>();
+                leader = true;
+            }
+
+            batch = pending;
+            batch.keys.add(key);
+
+            // a full batch is closed, the leader stops waiting
+            if (batch.keys.size() >= maxSize) {
+                pending = null;
+                batch.full.countDown();
+            }
+        }
+
+        if (leader) {
+            boolean interrupted = false;
+
+            // the batch is loaded even if the leader is interrupted, the other lookups wait for it
+            try {
+                batch.full.await(window, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exc) {
+                interrupted = true;
+            }
+
+            synchronized (this) {
+                if (pending == batch)
+                    pending = null;
+            }
+
+            try {
+                batch.values = loader.load(batch.keys);
+            } catch (Exception exc) {
+                batch.error = exc;
+            } finally {
+                batch.done.countDown();
+
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        } else {
+            batch.done.await();
+        }
+
+        // one failing key must not fail the other lookups of the batch
+        if (batch.error != null) {
+            if (batch.keys.size() == 1)
+                throw batch.error;
+
+            return loader.load(Collections.singleton(key)).get(key);
+        }
+
+        return batch.values == null ? null : batch.values.get(key);
+    }
+
+    /**
+     * Keys of a window and their values
+     */
+    private static class Batch<K, V> {
+
+        private final Set<K> keys = new LinkedHashSet<K>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Map<K, V> values;
+        private volatile Exception error;
+    }
+
+    /**
+     * Loads the values of many keys with one call
+     */
+    public interface Loader<K, V> {
+
+        /**
+         * Loads the values
+         *
+         * @param keys The keys
+         * @return Map of key to value, keys without value may be missing
+         * @throws Exception If the values can not be loaded
+         */
+        Map<K, V> load(Set<K> keys) throws Exception;
+    }
+}
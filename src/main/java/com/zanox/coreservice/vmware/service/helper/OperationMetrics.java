@@ -0,0 +1,98 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.zanox.coreservice.vmware.service.exception.VMWareException;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one operation: latency in microseconds, errors by exception-type, SOAP round-trips and calls in flight
+ */
+public class OperationMetrics {
+
+    private final String name;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong soapCalls = new AtomicLong();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public OperationMetrics(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getSoapCalls() {
+        return soapCalls.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of errors per exception-type
+     *
+     * @return Sorted map of the simple class-name to the number of errors
+     */
+    public Map<String, Long> getErrors() {
+
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet())
+            snapshot.put(error.getKey(), error.getValue().get());
+
+        return snapshot;
+    }
+
+    public long getErrorCount() {
+
+        long total = 0;
+        for (AtomicLong error : errors.values())
+            total += error.get();
+
+        return total;
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void finished(final long micros, final long soapCalls) {
+        inFlight.decrementAndGet();
+        latency.record(micros);
+        this.soapCalls.addAndGet(soapCalls);
+    }
+
+    void failed(final Throwable exc) {
+
+        // the helper wraps everything into VMWareException, the cause tells what really went wrong
+        Throwable cause = exc instanceof VMWareException && exc.getCause() != null ? exc.getCause() : exc;
+        String type = cause.getClass().getSimpleName();
+
+        AtomicLong counter = errors.get(type);
+
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(type, created);
+
+            if (counter == null)
+                counter = created;
+        }
+
+        counter.incrementAndGet();
+    }
+}
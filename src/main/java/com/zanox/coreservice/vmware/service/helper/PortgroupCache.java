@@ -0,0 +1,242 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the portgroups of all distributed virtual switches
+ *
+ * Maps the name of a portgroup to the UUID of its switch and its key, so NIC-specs can be built without remote calls. The cache is
+ * filled by one paged PropertyCollector-retrieval. It is invalidated when the config-version of a switch changes (reported by the
+ * inventory-mirror), a portgroup is renamed, a lookup misses or the TTL expires.
+ */
+public class PortgroupCache {
+
+    private static Logger logger = Logger.getLogger(PortgroupCache.class.getName());
+
+    private final long ttl;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructor of <code>PortgroupCache</code>
+     *
+     * @param ttl Time in milliseconds after which the portgroups are reloaded
+     */
+    public PortgroupCache(final long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns a portgroup by name, the name is compared case-insensitive. The portgroups are loaded if the cache is empty, expired or
+     * does not contain the portgroup.
+     *
+     * @param si The server-instance used to load the portgroups
+     * @param name Name of the portgroup
+     * @param switchName Name of the switch the portgroup has to belong to, null for any switch
+     * @return The portgroup or null if not found
+     * @throws Exception If the portgroups can not be loaded
+     */
+    public Portgroup get(final ServiceInstance si, final String name, final String switchName) throws Exception {
+
+        if (name == null)
+            return null;
+
+        Snapshot current = snapshot;
+
+        if (current == null || System.currentTimeMillis() - current.loaded > ttl)
+            current = load(si, current);
+
+        Portgroup portgroup = current.find(name, switchName);
+
+        // the portgroup may have been created after the cache was loaded
+        if (portgroup == null && System.currentTimeMillis() - current.loaded > Constants.PORTGROUP_CACHE_MISS_INTERVAL)
+            portgroup = load(si, current).find(name, switchName);
+
+        return portgroup;
+    }
+
+    /**
+     * Called with the current config-version of a switch, the cache is invalidated if the version differs from the loaded one
+     *
+     * @param dvs The switch
+     * @param configVersion The config-version, null if the switch was removed
+     */
+    public void switchChanged(final ManagedObjectReference dvs, final String configVersion) {
+
+        Snapshot current = snapshot;
+
+        if (current == null)
+            return;
+
+        String loaded = current.versions.get(dvs.getVal());
+
+        if (configVersion == null ? loaded != null : !configVersion.equals(loaded)) {
+            logger.log(Level.FINE, "Config-version of " + dvs.getVal() + " changed, invalidating portgroups");
+            invalidate();
+        }
+    }
+
+    /**
+     * Removes all portgroups, they are loaded again on the next lookup
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Loads the portgroups unless another thread loaded them in the meantime
+     *
+     * @param si The server-instance
+     * @param stale The snapshot the caller found outdated, null if there was none
+     * @return The current snapshot
+     */
+    private synchronized Snapshot load(final ServiceInstance si, final Snapshot stale) throws Exception {
+
+        Snapshot current = snapshot;
+
+        if (current != null && current != stale)
+            return current;
+
+        final Map<String, String> uuids = new HashMap<String, String>();
+        final Map<String, String> switchNames = new HashMap<String, String>();
+        final Map<String, String> versions = new HashMap<String, String>();
+        final List<Object[]> portgroups = new ArrayList<Object[]>();
+
+        ContainerView view = null;
+
+        try {
+            view = PropertyCollectorHelper.createContainerView(si, "DistributedVirtualSwitch", "DistributedVirtualPortgroup");
+
+            PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                    PropertyCollectorHelper.createPropertySpec("DistributedVirtualSwitch", "name", "uuid", "config.configVersion"),
+                    PropertyCollectorHelper.createPropertySpec("DistributedVirtualPortgroup", "name", "key", "config.distributedVirtualSwitch"));
+
+            PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                    new PropertyCollectorHelper.ContentHandler() {
+                        @Override
+                        public void handle(ObjectContent content) {
+                            Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                            String mor = content.getObj().getVal();
+
+                            if ("DistributedVirtualPortgroup".equals(content.getObj().getType())) {
+                                ManagedObjectReference dvs = (ManagedObjectReference) properties.get("config.distributedVirtualSwitch");
+
+                                if (dvs != null)
+                                    portgroups.add(new Object[]{properties.get("name"), properties.get("key"), dvs.getVal()});
+                            } else {
+                                uuids.put(mor, (String) properties.get("uuid"));
+                                switchNames.put(mor, (String) properties.get("name"));
+                                versions.put(mor, (String) properties.get("config.configVersion"));
+                            }
+                        }
+                    });
+        } finally {
+            try {
+                if (view != null)
+                    view.destroyView();
+            } catch (Exception exc) {
+                logger.log(Level.FINE, "Destroying the view failed", exc);
+            }
+        }
+
+        Map<String, List<Portgroup>> byName = new HashMap<String, List<Portgroup>>();
+
+        for (Object[] portgroup : portgroups) {
+            String name = (String) portgroup[0];
+            String dvs = (String) portgroup[2];
+
+            if (name == null || !uuids.containsKey(dvs))
+                continue;
+
+            List<Portgroup> entries = byName.get(name.toLowerCase());
+
+            if (entries == null) {
+                entries = new ArrayList<Portgroup>();
+                byName.put(name.toLowerCase(), entries);
+            }
+
+            entries.add(new Portgroup(name, (String) portgroup[1], uuids.get(dvs), switchNames.get(dvs)));
+        }
+
+        logger.log(Level.FINE, "Loaded " + portgroups.size() + " portgroups of " + uuids.size() + " switches");
+
+        snapshot = new Snapshot(byName, versions);
+        return snapshot;
+    }
+
+    /**
+     * Immutable state of the cache, replaced as a whole when the portgroups are loaded
+     */
+    private static class Snapshot {
+
+        private final long loaded = System.currentTimeMillis();
+        private final Map<String, List<Portgroup>> portgroups;
+        private final Map<String, String> versions;
+
+        private Snapshot(final Map<String, List<Portgroup>> portgroups, final Map<String, String> versions) {
+            this.portgroups = Collections.unmodifiableMap(portgroups);
+            this.versions = Collections.unmodifiableMap(versions);
+        }
+
+        private Portgroup find(final String name, final String switchName) {
+
+            List<Portgroup> entries = portgroups.get(name.toLowerCase());
+
+            if (entries == null)
+                return null;
+
+            for (Portgroup portgroup : entries) {
+                if (switchName == null || switchName.equals(portgroup.getSwitchName()))
+                    return portgroup;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Portgroup of a distributed virtual switch
+     */
+    public static class Portgroup {
+
+        private final String name;
+        private final String key;
+        private final String switchUuid;
+        private final String switchName;
+
+        public Portgroup(final String name, final String key, final String switchUuid, final String switchName) {
+            this.name = name;
+            this.key = key;
+            this.switchUuid = switchUuid;
+            this.switchName = switchName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getSwitchUuid() {
+            return switchUuid;
+        }
+
+        public String getSwitchName() {
+            return switchName;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.View;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper to build PropertyCollector-specs and to retrieve properties
+ */
+public class PropertyCollectorHelper {
+
+    private PropertyCollectorHelper() {
+    }
+
+    /**
+     * Creates a recursive ContainerView on the root-folder, the view has to be destroyed by the caller
+     *
+     * @param si The server-instance
+     * @param types Types of the managed-entities in the view (e.g. VirtualMachine)
+     * @return The view
+     * @throws RemoteException If the view can not be created
+     */
+    public static ContainerView createContainerView(final ServiceInstance si, final String... types) throws RemoteException {
+        return createContainerView(si, si.getRootFolder(), types);
+    }
+
+    /**
+     * Creates a recursive ContainerView on a container (e.g. a Datacenter), the view has to be destroyed by the caller
+     *
+     * @param si The server-instance
+     * @param container The container
+     * @param types Types of the managed-entities in the view (e.g. HostSystem)
+     * @return The view
+     * @throws RemoteException If the view can not be created
+     */
+    public static ContainerView createContainerView(final ServiceInstance si, final ManagedEntity container, final String... types)
+            throws RemoteException {
+        return si.getViewManager().createContainerView(container, types, true);
+    }
+
+    /**
+     * Creates a filter-spec that selects all objects of a view (ContainerView or ListView)
+     *
+     * @param view The view
+     * @param propertySpecs The properties to collect per type
+     * @return The filter-spec
+     */
+    public static PropertyFilterSpec createFilterSpec(final View view, final PropertySpec... propertySpecs) {
+
+        TraversalSpec traversalSpec = new TraversalSpec();
+        traversalSpec.setName("traverseView");
+        traversalSpec.setType(view.getMOR().getType());
+        traversalSpec.setPath("view");
+        traversalSpec.setSkip(Boolean.FALSE);
+
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(view.getMOR());
+        objectSpec.setSkip(Boolean.TRUE);
+        objectSpec.setSelectSet(new SelectionSpec[]{traversalSpec});
+
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.setObjectSet(new ObjectSpec[]{objectSpec});
+        filterSpec.setPropSet(propertySpecs);
+
+        return filterSpec;
+    }
+
+    /**
+     * Creates a filter-spec that selects the given objects
+     *
+     * @param objects References of the objects
+     * @param propertySpecs The properties to collect per type
+     * @return The filter-spec
+     */
+    public static PropertyFilterSpec createFilterSpec(final List<ManagedObjectReference> objects, final PropertySpec... propertySpecs) {
+
+        ObjectSpec[] objectSpecs = new ObjectSpec[objects.size()];
+
+        for (int i = 0; i < objectSpecs.length; i++) {
+            objectSpecs[i] = new ObjectSpec();
+            objectSpecs[i].setObj(objects.get(i));
+            objectSpecs[i].setSkip(Boolean.FALSE);
+        }
+
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.setObjectSet(objectSpecs);
+        filterSpec.setPropSet(propertySpecs);
+
+        return filterSpec;
+    }
+
+    /**
+     * Creates a property-spec
+     *
+     * @param type Type of the managed-object
+     * @param paths Property-paths to collect
+     * @return The property-spec
+     */
+    public static PropertySpec createPropertySpec(final String type, final String... paths) {
+
+        PropertySpec propertySpec = new PropertySpec();
+        propertySpec.setType(type);
+        propertySpec.setAll(Boolean.FALSE);
+        propertySpec.setPathSet(paths);
+
+        return propertySpec;
+    }
+
+    /**
+     * Retrieves the properties of all objects selected by the filter-spec page by page
+     *
+     * @param pc The PropertyCollector
+     * @param filterSpec The filter-spec
+     * @param maxObjects Maximum number of objects per page
+     * @param handler Handler that is called for every object as soon as its page arrived
+     * @throws Exception If the retrieval or the handler fails
+     */
+    public static void retrieve(final PropertyCollector pc, final PropertyFilterSpec filterSpec, final int maxObjects, final ContentHandler handler)
+            throws Exception {
+
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(maxObjects);
+
+        RetrieveResult result = pc.retrievePropertiesEx(new PropertyFilterSpec[]{filterSpec}, options);
+
+        while (result != null) {
+
+            try {
+                if (result.getObjects() != null) {
+                    for (ObjectContent content : result.getObjects())
+                        handler.handle(content);
+                }
+            } catch (Exception exc) {
+                if (result.getToken() != null)
+                    pc.cancelRetrievePropertiesEx(result.getToken());
+
+                throw exc;
+            }
+
+            if (result.getToken() == null)
+                break;
+
+            result = pc.continueRetrievePropertiesEx(result.getToken());
+        }
+    }
+
+    /**
+     * Converts the collected properties of an object to a map, ArrayOf-wrappers are converted to arrays
+     *
+     * @param properties The collected properties, may be null
+     * @return Map of property-path to value
+     */
+    public static Map<String, Object> toMap(final DynamicProperty[] properties) {
+
+        Map<String, Object> map = new HashMap<String, Object>();
+
+        if (properties != null) {
+            for (DynamicProperty property : properties)
+                map.put(property.getName(), convert(property.getVal()));
+        }
+
+        return map;
+    }
+
+    /**
+     * Converts a collected value, ArrayOf-wrappers are converted to arrays
+     *
+     * @param value The value, may be null
+     * @return The converted value
+     */
+    public static Object convert(final Object value) {
+
+        if (value == null)
+            return null;
+
+        return PropertyCollectorUtil.convertProperty(value);
+    }
+
+    /**
+     * Handler for retrieved objects
+     */
+    public interface ContentHandler {
+
+        /**
+         * Called for every retrieved object
+         *
+         * @param content The object with its collected properties
+         * @throws Exception If the object can not be handled, the retrieval is cancelled
+         */
+        void handle(ObjectContent content) throws Exception;
+    }
+}
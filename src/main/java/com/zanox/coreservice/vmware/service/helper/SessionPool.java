@@ -0,0 +1,420 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.ws.WSClient;
+import com.zanox.coreservice.vmware.service.exception.VMWareException;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of authenticated vSphere-sessions
+ *
+ * A session is validated with a cheap currentTime-call when it is borrowed after being idle for a while, expired sessions are replaced by a
+ * new login. Idle sessions are kept alive and logged out after the idle-timeout, borrowed sessions are kept alive as well. A session that
+ * vCenter expired or terminated while it was in use is detected by the NotAuthenticated-fault of the call, <code>execute</code> logs it
+ * out and retries the call once with a new session. Calls that submit vCenter-tasks use <code>executeOnce</code>, which is never retried.
+ *
+ * Borrowing is reentrant per thread: nested helper-calls share the session of the outer call.
+ */
+public class SessionPool {
+
+    private static Logger logger = Logger.getLogger(SessionPool.class.getName());
+
+    private final LoginConfiguration loginConfiguration;
+
+    private final int maxSessions;
+
+    private final long idleTimeout;
+
+    private final long validationInterval;
+
+    private final long borrowTimeout;
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingDeque<PooledSession> idle = new LinkedBlockingDeque<PooledSession>();
+
+    private final Set<PooledSession> borrowed = Collections.newSetFromMap(new ConcurrentHashMap<PooledSession, Boolean>());
+
+    private final ThreadLocal<PooledSession> current = new ThreadLocal<PooledSession>();
+
+    private final ScheduledExecutorService maintenance;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor of <code>SessionPool</code>
+     *
+     * @param loginConfiguration Credentials and URL of the vSphere-server
+     * @param maxSessions Maximum number of concurrent sessions
+     * @param idleTimeout Idle sessions are logged out after this time in ms
+     * @param keepAliveInterval Interval in ms to ping idle sessions and evict expired ones
+     * @param validationInterval Sessions idle for longer than this time in ms are validated on borrow
+     * @param borrowTimeout Maximum time in ms to wait for a free session
+     */
+    public SessionPool(final LoginConfiguration loginConfiguration, final int maxSessions, final long idleTimeout, final long keepAliveInterval,
+                       final long validationInterval, final long borrowTimeout) {
+        this.loginConfiguration = loginConfiguration;
+        this.maxSessions = maxSessions;
+        this.idleTimeout = idleTimeout;
+        this.validationInterval = validationInterval;
+        this.borrowTimeout = borrowTimeout;
+        this.permits = new Semaphore(maxSessions, true);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vmware-session-keepalive");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                keepAlive();
+            }
+        }, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a session from the pool, the session has to be returned with <code>release</code>
+     *
+     * @return A validated server-instance
+     * @throws VMWareException If no session is available within the borrow-timeout or the login fails
+     */
+    public ServiceInstance borrow() throws VMWareException {
+
+        if (closed)
+            throw new VMWareException("Session-pool is closed");
+
+        PooledSession session = current.get();
+
+        if (session != null) {
+            session.depth++;
+            return session.serviceInstance;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+                throw new VMWareException("No vSphere-session available after " + borrowTimeout + " ms");
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new VMWareException(exc);
+        }
+
+        try {
+            session = takeValidSession();
+        } catch (VMWareException exc) {
+            permits.release();
+            throw exc;
+        } catch (RuntimeException exc) {
+            permits.release();
+            throw exc;
+        }
+
+        session.depth = 1;
+        session.lastUsed = System.currentTimeMillis();
+        current.set(session);
+        borrowed.add(session);
+
+        Metrics.getInstance().sessionWait((System.nanoTime() - start) / 1000);
+
+        return session.serviceInstance;
+    }
+
+    /**
+     * Executes a call with a borrowed session. If the session was expired or terminated by vCenter the session is logged out and the call is
+     * retried once with a new session, a nested call only marks the shared session as invalid and the outermost call retries. Only calls
+     * that may be repeated are executed this way, calls that submit vCenter-tasks use <code>executeOnce</code>.
+     *
+     * @param call The call
+     * @return The result of the call
+     * @throws Exception The exception of the call or VMWareException if no session is available
+     */
+    public <T> T execute(final SessionCall<T> call) throws Exception {
+
+        boolean nested = current.get() != null;
+        ServiceInstance si = borrow();
+
+        try {
+            return call.call(si);
+        } catch (Exception exc) {
+            if (!isSessionLost(exc))
+                throw exc;
+
+            invalidate(si);
+
+            if (nested)
+                throw exc;
+
+            release(si);
+            si = null;
+
+            logger.info("Session lost ... retrying with a new connection");
+            si = borrow();
+
+            try {
+                return call.call(si);
+            } catch (Exception retryExc) {
+                if (isSessionLost(retryExc))
+                    invalidate(si);
+
+                throw retryExc;
+            }
+        } finally {
+            release(si);
+        }
+    }
+
+    /**
+     * Executes a call with a borrowed session without retrying it, e.g. the submission of a vCenter-task that must not be submitted twice.
+     * If the session was expired or terminated by vCenter it is logged out on release.
+     *
+     * @param call The call
+     * @return The result of the call
+     * @throws Exception The exception of the call or VMWareException if no session is available
+     */
+    public <T> T executeOnce(final SessionCall<T> call) throws Exception {
+
+        ServiceInstance si = borrow();
+
+        try {
+            return call.call(si);
+        } catch (Exception exc) {
+            if (isSessionLost(exc))
+                invalidate(si);
+
+            throw exc;
+        } finally {
+            release(si);
+        }
+    }
+
+    /**
+     * Returns if a call failed because its session is no longer authenticated
+     *
+     * @param exc The exception of the call, the causes are checked as well
+     * @return If the session was lost
+     */
+    public static boolean isSessionLost(final Throwable exc) {
+
+        for (Throwable cause = exc; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotAuthenticated)
+                return true;
+
+            if (cause.getCause() == cause)
+                break;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns a borrowed session to the pool
+     *
+     * @param serviceInstance The server-instance returned by <code>borrow</code>, may be null
+     */
+    public void release(final ServiceInstance serviceInstance) {
+
+        PooledSession session = current.get();
+
+        if (serviceInstance == null || session == null || session.serviceInstance != serviceInstance)
+            return;
+
+        if (--session.depth > 0)
+            return;
+
+        current.remove();
+        borrowed.remove(session);
+        session.lastUsed = System.currentTimeMillis();
+
+        if (closed || session.invalid) {
+            logout(session);
+        } else {
+            idle.offerFirst(session);
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Marks a borrowed session as invalid, it is logged out instead of being returned to the pool
+     *
+     * @param serviceInstance The server-instance returned by <code>borrow</code>
+     */
+    public void invalidate(final ServiceInstance serviceInstance) {
+
+        PooledSession session = current.get();
+
+        if (session != null && session.serviceInstance == serviceInstance)
+            session.invalid = true;
+    }
+
+    /**
+     * Logs out all idle sessions, sessions in use are kept
+     */
+    public void clear() {
+
+        List<PooledSession> sessions = new ArrayList<PooledSession>();
+        idle.drainTo(sessions);
+
+        for (PooledSession session : sessions)
+            logout(session);
+    }
+
+    /**
+     * Closes the pool and logs out all idle sessions, sessions in use are logged out on release
+     */
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        clear();
+    }
+
+    /**
+     * Creates a new authenticated session that is not managed by the pool
+     *
+     * @return The server-instance
+     * @throws VMWareException If the login fails
+     */
+    public ServiceInstance createSession() throws VMWareException {
+
+        try {
+            URL url = new URL(loginConfiguration.getVmwareUrl());
+            ServiceInstance serviceInstance = new ServiceInstance(url, loginConfiguration.getUserName(), loginConfiguration.getPassword(), true);
+
+            // every later request of the session is counted as SOAP round-trip
+            WSClient client = serviceInstance.getServerConnection().getVimService().getWsc();
+            client.setBaseUrl(Metrics.getInstance().countCalls(client.getBaseUrl()));
+
+            return serviceInstance;
+        } catch (Exception exc) {
+            throw new VMWareException("Login to " + loginConfiguration.getVmwareUrl() + " failed", exc);
+        }
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getIdleSessions() {
+        return idle.size();
+    }
+
+    public int getActiveSessions() {
+        return maxSessions - permits.availablePermits();
+    }
+
+    private PooledSession takeValidSession() throws VMWareException {
+
+        PooledSession session;
+
+        while ((session = idle.pollFirst()) != null) {
+
+            if (System.currentTimeMillis() - session.lastUsed < validationInterval || isAlive(session))
+                return session;
+
+            logger.info("Session expired ... creating a new connection");
+            logout(session);
+        }
+
+        logger.info("No idle session ... creating a new connection");
+
+        return new PooledSession(createSession());
+    }
+
+    private void keepAlive() {
+
+        long now = System.currentTimeMillis();
+
+        Iterator<PooledSession> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledSession session = iterator.next();
+
+            // the session is taken out of the pool while it is pinged, a session borrowed meanwhile is skipped
+            if (!idle.remove(session))
+                continue;
+
+            if (now - session.lastUsed > idleTimeout || !isAlive(session)) {
+                logger.log(Level.FINE, "Evicting idle session");
+                logout(session);
+            } else if (closed) {
+                logout(session);
+            } else {
+                idle.offerLast(session);
+            }
+        }
+
+        // a session borrowed for a long time (e.g. by a batch) would reach the idle-timeout of vCenter, a failed ping is left to its owner
+        for (PooledSession session : borrowed) {
+            if (now - session.lastUsed > validationInterval)
+                isAlive(session);
+        }
+    }
+
+    private boolean isAlive(final PooledSession session) {
+
+        try {
+            session.serviceInstance.currentTime();
+            return true;
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Session is not active", exc);
+            return false;
+        }
+    }
+
+    private void logout(final PooledSession session) {
+
+        try {
+            session.serviceInstance.getServerConnection().logout();
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Logout failed", exc);
+        }
+    }
+
+    /**
+     * Server-instance with the pooling-state
+     */
+    private static class PooledSession {
+
+        private final ServiceInstance serviceInstance;
+
+        private volatile long lastUsed;
+
+        private int depth;
+
+        private boolean invalid;
+
+        private PooledSession(final ServiceInstance serviceInstance) {
+            this.serviceInstance = serviceInstance;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Call executed with a borrowed session
+     */
+    public interface SessionCall<T> {
+
+        T call(ServiceInstance si) throws Exception;
+    }
+}
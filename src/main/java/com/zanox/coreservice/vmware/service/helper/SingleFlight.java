@@ -0,0 +1,66 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical calls
+ *
+ * The first caller of a key executes the call in its own thread, callers of the same key arriving while it is in flight wait for it and
+ * get the same result or exception. The key is removed when the call finished, so later callers execute it again.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, FutureTask<?>> calls = new ConcurrentHashMap<String, FutureTask<?>>();
+
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Executes a call or joins the call of the same key that is in flight
+     *
+     * @param key Key of the call, e.g. method and VM-name
+     * @param call The call
+     * @return The result of the call
+     * @throws Exception The exception of the call
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(final String key, final Callable<V> call) throws Exception {
+
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> inFlight = (FutureTask<V>) calls.putIfAbsent(key, task);
+
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                calls.remove(key, task);
+            }
+
+            inFlight = task;
+        } else {
+            shared.incrementAndGet();
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof Exception)
+                throw (Exception) exc.getCause();
+
+            throw exc;
+        }
+    }
+
+    /**
+     * Returns the number of calls that joined a call in flight instead of being executed
+     *
+     * @return The number of calls
+     */
+    public long getShared() {
+        return shared.get();
+    }
+}
@@ -0,0 +1,530 @@
+package com.zanox.coreservice.vmware.service.helper;
+
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ListView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
+import com.zanox.coreservice.vmware.service.vo.TaskStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracker for the completion of vCenter-tasks
+ *
+ * All outstanding tasks are members of one ListView, a background-thread waits for changes of their state with a single
+ * PropertyCollector-filter and WaitForUpdatesEx instead of polling every task. Finished tasks are removed from the view.
+ * If the tracker loses its session the tracked tasks fail, so their waiters fall back to polling.
+ */
+public class TaskTracker implements Runnable {
+
+    private static Logger logger = Logger.getLogger(TaskTracker.class.getName());
+
+    private static final String[] TASK_PROPERTIES = {"info.state", "info.progress", "info.error", "info.result"};
+
+    private final SessionPool sessionPool;
+
+    private final ConcurrentMap<String, TaskFuture> futures = new ConcurrentHashMap<String, TaskFuture>();
+
+    private final List<ManagedObjectReference> finished = new ArrayList<ManagedObjectReference>();
+
+    private volatile boolean running = false;
+
+    private boolean connected = false;
+
+    private volatile VimPortType vimService;
+
+    private volatile ManagedObjectReference listView;
+
+    private volatile PropertyCollector collector;
+
+    private volatile Thread thread;
+
+    /**
+     * Constructor of <code>TaskTracker</code>
+     *
+     * @param sessionPool Pool to create the dedicated session of the tracker
+     */
+    public TaskTracker(final SessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * Starts the background-thread if it is not running yet
+     */
+    public synchronized void start() {
+
+        if (running)
+            return;
+
+        running = true;
+
+        thread = new Thread(this, "vmware-task-tracker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background-thread, all tracked tasks fail
+     */
+    public synchronized void stop() {
+
+        if (!running)
+            return;
+
+        running = false;
+        connected = false;
+
+        PropertyCollector pc = collector;
+        if (pc != null) {
+            try {
+                pc.cancelWaitForUpdates();
+            } catch (Exception exc) {
+                logger.log(Level.FINE, "Cancel failed", exc);
+            }
+        }
+
+        thread.interrupt();
+
+        failPending("Task-tracker stopped");
+    }
+
+    /**
+     * Tracks a vCenter-task, the tracker is started on first use
+     *
+     * @param task The vCenter-task
+     * @param status Status of the asynchronous task the progress is reported to, may be null
+     * @return Future that is completed when the task is finished or null if the tracker is not connected
+     * @throws InterruptedException If the thread is interrupted while waiting for the connection
+     */
+    public TaskFuture track(final Task task, final TaskStatus status) throws InterruptedException {
+
+        start();
+
+        if (!awaitConnected(Constants.TASK_TRACKER_CONNECT_TIMEOUT))
+            return null;
+
+        ManagedObjectReference mor = task.getMOR();
+        TaskFuture future = new TaskFuture(mor, status);
+        TaskFuture existing = futures.putIfAbsent(mor.getVal(), future);
+
+        if (existing != null)
+            return existing;
+
+        // the filter reports the current state of the added task, a task finished in the meantime is completed immediately
+        try {
+            vimService.modifyListView(listView, new ManagedObjectReference[]{mor}, null);
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Adding " + mor.getVal() + " to the task-tracker failed", exc);
+            futures.remove(mor.getVal(), future);
+            return null;
+        }
+
+        return future;
+    }
+
+    /**
+     * Returns the number of tracked tasks
+     *
+     * @return The number of tasks
+     */
+    public int getTrackedTasks() {
+        return futures.size();
+    }
+
+    @Override
+    public void run() {
+
+        while (isCurrent()) {
+
+            ServiceInstance si = null;
+
+            try {
+                si = sessionPool.createSession();
+
+                VimPortType vim = si.getServerConnection().getVimService();
+                collector = si.getPropertyCollector().createPropertyCollector();
+
+                // Task is no ManagedEntity, so the view is created with the MOR-based calls of the port
+                listView = vim.createListView(si.getServiceContent().getViewManager(), pendingTasks());
+                ListView view = new ListView(si.getServerConnection(), listView);
+
+                collector.createFilter(PropertyCollectorHelper.createFilterSpec(view,
+                        PropertyCollectorHelper.createPropertySpec("Task", TASK_PROPERTIES)), true);
+
+                WaitOptions waitOptions = new WaitOptions();
+                waitOptions.setMaxWaitSeconds(Constants.TASK_TRACKER_WAIT);
+
+                vimService = vim;
+                setConnected(true);
+
+                String version = "";
+
+                while (isCurrent()) {
+                    UpdateSet updateSet = collector.waitForUpdatesEx(version, waitOptions);
+
+                    if (updateSet != null) {
+                        apply(updateSet);
+                        version = updateSet.getVersion();
+                    }
+
+                    removeFinished(vim);
+                }
+            } catch (Exception exc) {
+                if (isCurrent())
+                    logger.log(Level.WARNING, "Task-tracker lost connection, retrying", exc);
+            } finally {
+                if (isCurrent()) {
+                    setConnected(false);
+                    failPending("Task-tracker lost connection");
+                }
+
+                destroy(si);
+            }
+
+            if (isCurrent())
+                sleep(Constants.TASK_TRACKER_RETRY);
+        }
+    }
+
+    private boolean isCurrent() {
+        return running && thread == Thread.currentThread();
+    }
+
+    private synchronized void setConnected(final boolean connected) {
+        this.connected = connected;
+        notifyAll();
+    }
+
+    private synchronized boolean awaitConnected(final long timeout) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (running && !connected) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0)
+                break;
+
+            wait(remaining);
+        }
+
+        return running && connected;
+    }
+
+    private void failPending(final String reason) {
+
+        for (TaskFuture future : futures.values()) {
+            if (futures.remove(future.getTask().getVal(), future))
+                future.fail(new IllegalStateException(reason));
+        }
+    }
+
+    private ManagedObjectReference[] pendingTasks() {
+
+        List<ManagedObjectReference> mors = new ArrayList<ManagedObjectReference>();
+        for (TaskFuture future : futures.values())
+            mors.add(future.getTask());
+
+        return mors.toArray(new ManagedObjectReference[mors.size()]);
+    }
+
+    private void apply(final UpdateSet updateSet) {
+
+        if (updateSet.getFilterSet() == null)
+            return;
+
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+
+            if (filterUpdate.getObjectSet() == null)
+                continue;
+
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet())
+                applyTask(objectUpdate);
+        }
+    }
+
+    private void applyTask(final ObjectUpdate objectUpdate) {
+
+        ManagedObjectReference mor = objectUpdate.getObj();
+        TaskFuture future = futures.get(mor.getVal());
+
+        if (objectUpdate.getKind() == ObjectUpdateKind.leave) {
+            if (future != null && futures.remove(mor.getVal(), future))
+                future.fail(new IllegalStateException("Task " + mor.getVal() + " disappeared"));
+            return;
+        }
+
+        if (future == null) {
+            finished.add(mor);
+            return;
+        }
+
+        TaskInfoState state = null;
+
+        // error and result are kept by the future, they may arrive with an earlier update than the final state
+        if (objectUpdate.getChangeSet() != null) {
+            for (PropertyChange change : objectUpdate.getChangeSet()) {
+                Object value = change.getOp() == PropertyChangeOp.remove ? null : PropertyCollectorHelper.convert(change.getVal());
+
+                if ("info.state".equals(change.getName()))
+                    state = (TaskInfoState) value;
+                else if ("info.progress".equals(change.getName()))
+                    future.setProgress((Integer) value);
+                else if ("info.error".equals(change.getName()))
+                    future.setError((LocalizedMethodFault) value);
+                else if ("info.result".equals(change.getName()))
+                    future.setResult(value);
+            }
+        }
+
+        if (state == TaskInfoState.success || state == TaskInfoState.error) {
+            futures.remove(mor.getVal(), future);
+            finished.add(mor);
+            future.complete(state);
+        }
+    }
+
+    private void removeFinished(final VimPortType vim) throws Exception {
+
+        if (finished.isEmpty())
+            return;
+
+        vim.modifyListView(listView, null, finished.toArray(new ManagedObjectReference[finished.size()]));
+        finished.clear();
+    }
+
+    private void destroy(final ServiceInstance si) {
+
+        try {
+            if (collector != null)
+                collector.destroyPropertyCollector();
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Destroying the collector failed", exc);
+        }
+
+        collector = null;
+        vimService = null;
+        listView = null;
+        finished.clear();
+
+        // the ListView is a session-object and is removed by the logout
+        if (si != null) {
+            try {
+                si.getServerConnection().logout();
+            } catch (Exception exc) {
+                logger.log(Level.FINE, "Logout failed", exc);
+            }
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Future of a tracked vCenter-task, the value is the final state of the task
+     */
+    public static class TaskFuture implements Future<TaskInfoState> {
+
+        private final ManagedObjectReference task;
+        private final TaskStatus status;
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+
+        private TaskInfoState state;
+        private LocalizedMethodFault error;
+        private Object result;
+        private Exception failure;
+        private boolean done = false;
+
+        private TaskFuture(final ManagedObjectReference task, final TaskStatus status) {
+            this.task = task;
+            this.status = status;
+        }
+
+        public ManagedObjectReference getTask() {
+            return task;
+        }
+
+        /**
+         * Returns the error of the task
+         *
+         * @return The error or null if the task succeeded or is not finished yet
+         */
+        public synchronized LocalizedMethodFault getError() {
+            return error;
+        }
+
+        /**
+         * Returns the result of the task (e.g. the VM created by CreateVM_Task)
+         *
+         * @return The result or null if the task has no result or is not finished yet
+         */
+        public synchronized Object getResult() {
+            return result;
+        }
+
+        /**
+         * Adds a listener that is called once the future is done, the listener is called immediately if it is done already
+         *
+         * @param listener The listener, it is called by the tracker-thread and must not block
+         */
+        public void addListener(final Runnable listener) {
+
+            synchronized (this) {
+                if (!done) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+
+            callListener(listener);
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Returns if the final state of the task was reported, a failed future has no state
+         *
+         * @return If the task is finished and tracked until the end
+         */
+        public synchronized boolean isCompleted() {
+            return done && failure == null;
+        }
+
+        @Override
+        public synchronized TaskInfoState get() throws InterruptedException, ExecutionException {
+
+            while (!done)
+                wait();
+
+            return value();
+        }
+
+        @Override
+        public synchronized TaskInfoState get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+            while (!done) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    throw new TimeoutException("Task " + task.getVal() + " not finished");
+
+                wait(remaining);
+            }
+
+            return value();
+        }
+
+        private TaskInfoState value() throws ExecutionException {
+
+            if (failure != null)
+                throw new ExecutionException(failure);
+
+            return state;
+        }
+
+        private void setProgress(final Integer progress) {
+            if (status != null)
+                status.setProgress(progress);
+        }
+
+        private synchronized void setError(final LocalizedMethodFault error) {
+            if (!done)
+                this.error = error;
+        }
+
+        private synchronized void setResult(final Object result) {
+            if (!done)
+                this.result = result;
+        }
+
+        private void complete(final TaskInfoState state) {
+
+            synchronized (this) {
+                if (done)
+                    return;
+
+                this.state = state;
+                this.done = true;
+            }
+
+            finish();
+        }
+
+        private void fail(final Exception failure) {
+
+            synchronized (this) {
+                if (done)
+                    return;
+
+                this.failure = failure;
+                this.done = true;
+            }
+
+            finish();
+        }
+
+        private void finish() {
+
+            List<Runnable> notified;
+
+            synchronized (this) {
+                notifyAll();
+
+                notified = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+
+            for (Runnable listener : notified)
+                callListener(listener);
+        }
+
+        private void callListener(final Runnable listener) {
+            try {
+                listener.run();
+            } catch (RuntimeException exc) {
+                logger.log(Level.WARNING, "Listener of task " + task.getVal() + " failed", exc);
+            }
+        }
+    }
+}
@@ -3,19 +3,49 @@ package com.zanox.coreservice.vmware.service.helper;
 import com.vmware.vim25.*;
 import com.vmware.vim25.mo.*;
 import com.zanox.coreservice.vmware.service.enums.OpEnum;
+import com.zanox.coreservice.vmware.service.enums.VmField;
+import com.zanox.coreservice.vmware.service.exception.AdmissionRejectedException;
 import com.zanox.coreservice.vmware.service.exception.VMWareException;
+import com.zanox.coreservice.vmware.service.vo.Configuration;
+import com.zanox.coreservice.vmware.service.vo.Endpoint;
+import com.zanox.coreservice.vmware.service.vo.PowerResult;
+import com.zanox.coreservice.vmware.service.vo.TaskStatus;
+import com.zanox.coreservice.vmware.service.vo.VmFilter;
+import com.zanox.coreservice.vmware.service.vo.VmInfo;
+import com.zanox.coreservice.vmware.service.vo.VmResult;
+import com.zanox.coreservice.vmware.service.vo.VmSpec;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
- * VMWare-Helper Singleton
+ * VMWare-Helper, one instance per vCenter-endpoint
  *
  * @author sascha
  */
@@ -23,706 +53,2709 @@ public class VMWareHelper {
 
     private static Logger logger = Logger.getLogger(VMWareHelper.class.getName());
 
-    private static VMWareHelper VMWARE = null;
+    private static final Map<String, VMWareHelper> HELPERS = new LinkedHashMap<String, VMWareHelper>();
+
+    private static ExecutorService fanOutExecutor;
+
+    private static ExecutorService powerExecutor;
+
+    // the rate of started operations is limited over all endpoints
+    private static AdmissionController.TokenBucket operationTokens;
+
+    private final String endpoint;
 
     private LoginConfiguration loginConfiguration;
 
-    private ServiceInstance serviceInstance;
+    private SessionPool sessionPool;
+
+    private InventoryIndex inventoryIndex;
+
+    private InventoryMirror inventoryMirror;
+
+    private PortgroupCache portgroupCache;
+
+    private TaskTracker taskTracker;
+
+    private AdmissionController admission;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private MicroBatcher<String, VirtualMachinePowerState> powerStates;
+
+    private final ConcurrentMap<String, String> hostNames = new ConcurrentHashMap<String, String>();
+
+    private volatile long hostNamesLoaded;
+
+    private volatile long taskTimeout;
+
+    private boolean closed = false;
+
+    private VMWareHelper(final Endpoint endpoint) {
+        this.endpoint = endpoint.getName();
+        loginConfiguration = new LoginConfiguration(endpoint.getUserName(), endpoint.getPassword(), endpoint.getUrl());
+        sessionPool = new SessionPool(loginConfiguration, Constants.SESSION_POOL_SIZE, Constants.SESSION_IDLE_TIMEOUT,
+                Constants.SESSION_KEEP_ALIVE_INTERVAL, Constants.SESSION_VALIDATION_INTERVAL, Constants.SESSION_BORROW_TIMEOUT);
+        inventoryIndex = new InventoryIndex(Constants.INVENTORY_INDEX_TTL, Constants.INVENTORY_INDEX_SIZE);
+        portgroupCache = new PortgroupCache(Constants.PORTGROUP_CACHE_TTL);
+        inventoryMirror = new InventoryMirror(sessionPool, inventoryIndex, portgroupCache);
+        taskTracker = new TaskTracker(sessionPool);
+
+        Configuration conf = Configuration.getInstance();
+        admission = new AdmissionController(this.endpoint, getOperationTokens(conf), conf.getMaxOperations(), conf.getMaxOperationsPerHost(),
+                conf.getMaxOperationsPerDatastore(), conf.getMaxQueuedOperations());
+
+        powerStates = new MicroBatcher<String, VirtualMachinePowerState>(new MicroBatcher.Loader<String, VirtualMachinePowerState>() {
+            @Override
+            public Map<String, VirtualMachinePowerState> load(Set<String> vmNames) throws Exception {
+                return loadPowerStates(vmNames);
+            }
+        }, conf.getPowerStateBatchWindow(), Constants.DEFAULT_RETRIEVE_MAX_OBJECTS);
+        taskTimeout = conf.getTaskTimeout() * 1000L;
+
+        // the gauges are the sums over all endpoints
+        Metrics metrics = Metrics.getInstance();
+
+        metrics.register("sessions.active", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.sessionPool.getActiveSessions();
+                return value;
+            }
+        });
+        metrics.register("sessions.idle", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.sessionPool.getIdleSessions();
+                return value;
+            }
+        });
+        metrics.register("tasks.tracked", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.taskTracker.getTrackedTasks();
+                return value;
+            }
+        });
+        metrics.register("admission.running", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.admission.getRunning();
+                return value;
+            }
+        });
+        metrics.register("admission.queued", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.admission.getQueued();
+                return value;
+            }
+        });
+        metrics.register("reads.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.singleFlight.getShared();
+                return value;
+            }
+        });
+        metrics.register("admission.rejected", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.admission.getRejected();
+                return value;
+            }
+        });
+        metrics.register("events.listeners", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long value = 0;
+                for (VMWareHelper helper : getInstances())
+                    value += helper.inventoryMirror.getListenerCount();
+                return value;
+            }
+        });
+    }
+
+    private static synchronized AdmissionController.TokenBucket getOperationTokens(final Configuration conf) {
+
+        if (operationTokens == null)
+            operationTokens = new AdmissionController.TokenBucket(conf.getOperationsPerSecond());
+
+        return operationTokens;
+    }
+
+    /**
+     * Returns the instance of VMWare-Helper for a vCenter-endpoint, every endpoint has its own session-pool and inventory-caches
+     *
+     * @param endpoint The endpoint
+     * @return The instance
+     */
+    public static synchronized VMWareHelper getInstance(final Endpoint endpoint) {
+
+        VMWareHelper helper = HELPERS.get(endpoint.getName());
+
+        if (helper == null) {
+            helper = new VMWareHelper(endpoint);
+            HELPERS.put(endpoint.getName(), helper);
+        }
+
+        return helper;
+    }
+
+    /**
+     * Returns the instances of all endpoints that were used so far
+     *
+     * @return The instances
+     */
+    public static synchronized List<VMWareHelper> getInstances() {
+        return new ArrayList<VMWareHelper>(HELPERS.values());
+    }
+
+    /**
+     * Applies a changed configuration to the existing instances. An instance whose endpoint was removed or whose user or URL changed is
+     * closed, the next <code>getInstance</code> creates a new one. A changed password is used for new sessions. The inventory-caches and
+     * the idle sessions are discarded in any case, the limits of the admission-control are updated.
+     *
+     * @param conf The changed configuration
+     */
+    public static synchronized void reconfigure(final Configuration conf) {
+
+        List<Endpoint> endpoints = conf.getEndpoints();
+
+        getOperationTokens(conf).setRate(conf.getOperationsPerSecond());
+
+        for (VMWareHelper helper : getInstances()) {
+
+            Endpoint endpoint = null;
+            for (Endpoint candidate : endpoints) {
+                if (candidate.getName().equals(helper.endpoint))
+                    endpoint = candidate;
+            }
+
+            LoginConfiguration login = helper.loginConfiguration;
+
+            if (endpoint == null || !equal(endpoint.getUserName(), login.getUserName()) || !equal(endpoint.getUrl(), login.getVmwareUrl())) {
+                logger.info("Endpoint " + helper.endpoint + " removed or login changed, closing the helper");
+                helper.shutdown();
+                continue;
+            }
+
+            if (!equal(endpoint.getPassword(), login.getOriginalPassword()))
+                login.reload(endpoint.getPassword());
+
+            logger.info("Configuration changed, clearing caches and idle sessions of endpoint " + helper.endpoint);
+
+            helper.inventoryIndex.clear();
+            helper.portgroupCache.invalidate();
+            helper.hostNames.clear();
+            helper.hostNamesLoaded = 0;
+            helper.sessionPool.clear();
+            helper.admission.configure(conf.getMaxOperations(), conf.getMaxOperationsPerHost(), conf.getMaxOperationsPerDatastore(),
+                    conf.getMaxQueuedOperations());
+            helper.powerStates.setWindow(conf.getPowerStateBatchWindow());
+            helper.taskTimeout = conf.getTaskTimeout() * 1000L;
+        }
+    }
+
+    /**
+     * Closes the instances of all endpoints
+     */
+    public static void shutdownAll() {
+
+        for (VMWareHelper helper : getInstances())
+            helper.shutdown();
+
+        synchronized (VMWareHelper.class) {
+            if (fanOutExecutor != null) {
+                fanOutExecutor.shutdownNow();
+                fanOutExecutor = null;
+            }
+
+            if (powerExecutor != null) {
+                powerExecutor.shutdownNow();
+                powerExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Calls the instances of several endpoints in parallel
+     *
+     * An endpoint that fails is logged and returned as failure instead of a result, so one unavailable vCenter does not fail a query
+     * over all of them.
+     *
+     * @param endpoints The endpoints
+     * @param call The call per instance
+     * @return The results and failures per endpoint-name in the order of the endpoints
+     * @throws VMWareException If the call failed for all endpoints
+     */
+    public static <T> FanOutResult<T> fanOut(final List<Endpoint> endpoints, final EndpointCall<T> call) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.fanOut");
+
+        try {
+            Map<String, Future<T>> futures = new LinkedHashMap<String, Future<T>>();
+
+            for (final Endpoint endpoint : endpoints) {
+                final VMWareHelper helper = getInstance(endpoint);
+
+                Callable<T> task = new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        return call.call(helper);
+                    }
+                };
+
+                // a single endpoint is called in the current thread
+                futures.put(endpoint.getName(), endpoints.size() == 1 ? runNow(task) : getFanOutExecutor().submit(task));
+            }
+
+            FanOutResult<T> result = new FanOutResult<T>();
+            Exception failure = null;
+
+            for (Map.Entry<String, Future<T>> future : futures.entrySet()) {
+                try {
+                    result.results.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException exc) {
+                    Exception cause = exc.getCause() instanceof Exception ? (Exception) exc.getCause() : exc;
+                    logger.log(Level.WARNING, "Endpoint " + future.getKey() + " failed", cause);
+
+                    result.failures.put(future.getKey(), String.valueOf(cause.getMessage()));
+
+                    if (failure == null)
+                        failure = cause;
+                }
+            }
+
+            if (result.results.isEmpty() && failure != null)
+                throw failure instanceof VMWareException ? (VMWareException) failure : new VMWareException(failure);
+
+            return result;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw timer.failed(new VMWareException("Interrupted", exc));
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the endpoint that contains a VM, all endpoints are asked in parallel
+     *
+     * @param endpoints The endpoints
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirrors are used if they are in sync
+     * @return The first endpoint in configuration-order that contains the VM or null
+     * @throws VMWareException If all endpoints failed
+     */
+    public static Endpoint findOwner(final List<Endpoint> endpoints, final String vmName, final boolean consistent) throws VMWareException {
+
+        Map<String, Boolean> available = fanOut(endpoints, new EndpointCall<Boolean>() {
+            @Override
+            public Boolean call(VMWareHelper helper) throws Exception {
+                return helper.isVMNameAvailable(vmName, consistent);
+            }
+        }).getResults();
+
+        for (Endpoint endpoint : endpoints) {
+            if (Boolean.FALSE.equals(available.get(endpoint.getName())))
+                return endpoint;
+        }
+
+        return null;
+    }
+
+    private static synchronized ExecutorService getFanOutExecutor() {
+
+        if (fanOutExecutor == null) {
+            fanOutExecutor = Executors.newFixedThreadPool(Constants.FAN_OUT_WORKERS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "vmware-fan-out-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return fanOutExecutor;
+    }
+
+    private static synchronized ExecutorService getPowerExecutor() {
+
+        if (powerExecutor == null) {
+            powerExecutor = Executors.newFixedThreadPool(Constants.POWER_OPERATION_WORKERS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "vmware-power-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return powerExecutor;
+    }
+
+    private static <T> Future<T> runNow(final Callable<T> task) {
+
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+
+        return future;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Logs out all idle sessions of the session-pool. Calling this method is optional, sessions are validated before they are used.
+     *
+     * @throws VMWareException If something goes wrong
+     */
+    public void logout() throws VMWareException {
+
+        logger.info("Closing idle sessions");
+
+        sessionPool.clear();
+    }
+
+    /**
+     * Closes the session-pool, the helper must not be used afterwards
+     */
+    public void shutdown() {
+
+        logger.info("Closing session-pool");
+
+        synchronized (VMWareHelper.class) {
+            if (HELPERS.get(endpoint) == this)
+                HELPERS.remove(endpoint);
+        }
+
+        // the listeners of the mirror are told that no further changes are reported
+        synchronized (this) {
+            closed = true;
+            inventoryMirror.stop();
+        }
+
+        taskTracker.stop();
+        sessionPool.close();
+    }
+
+    /**
+     * Returns the inventory-mirror if it is in sync, the mirror is started on first use
+     *
+     * @return The mirror or null if it is not in sync (yet)
+     */
+    private InventoryMirror getSyncedMirror() {
+
+        inventoryMirror.start();
+
+        return inventoryMirror.isSynced() ? inventoryMirror : null;
+    }
+
+    /**
+     * Registers a listener of the changes of the VMs, the inventory-mirror is started if it is not running yet. If the helper is closed
+     * already the listener is told right away that it is stopped.
+     *
+     * @param listener The listener
+     */
+    public synchronized void addVmListener(final InventoryMirror.Listener listener) {
+
+        if (closed) {
+            listener.stopped();
+            return;
+        }
+
+        inventoryMirror.start();
+        inventoryMirror.addListener(listener);
+    }
+
+    public void removeVmListener(final InventoryMirror.Listener listener) {
+        inventoryMirror.removeListener(listener);
+    }
+
+    /**
+     * Returns the mirrored state of a VM
+     *
+     * @param vmName Name of the VM
+     * @return The state or null if the mirror is not in sync or the VM is unknown
+     */
+    private VmInfo getMirroredVm(final String vmName) {
+
+        InventoryMirror mirror = getSyncedMirror();
+
+        return mirror == null ? null : mirror.getVm(vmName);
+    }
+
+    /**
+     * Executes a read of vCenter or joins the identical read that is in flight
+     *
+     * @param key Method and VM-name of the read
+     * @param call The read
+     * @return The result of the read
+     */
+    private <V> V coalesce(final String key, final Callable<V> call) throws VMWareException {
+
+        try {
+            return singleFlight.execute(key, call);
+        } catch (VMWareException exc) {
+            throw exc;
+        } catch (Exception exc) {
+            throw new VMWareException(exc);
+        }
+    }
+
+    /**
+     * Rejects a mutating operation early if the queue of the admission-control is full
+     *
+     * @throws AdmissionRejectedException If the queue is full
+     */
+    public void checkAdmission() throws AdmissionRejectedException {
+        admission.checkCapacity();
+    }
+
+    /**
+     * Waits for the admission of a mutating operation of the current caller on a VM, its HostSystem is taken from the inventory-mirror
+     *
+     * @param vmName Name of the VM
+     * @return The permit, it has to be released when the operation finished
+     */
+    private AdmissionController.Permit admitOperation(final String vmName) throws AdmissionRejectedException, InterruptedException {
+
+        VmInfo vm = getMirroredVm(vmName);
+
+        return admission.admit(AdmissionController.getCaller(), vm == null ? null : vm.getHostName(), null);
+    }
+
+    /**
+     * Checks if VM-name is available
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return If VMName is available
+     * @throws VMWareException If something goes wrong.
+     */
+    public Boolean isVMNameAvailable(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.isVMNameAvailable");
+
+        try {
+            InventoryMirror mirror = consistent ? null : getSyncedMirror();
+
+            if (mirror != null)
+                return !mirror.containsVm(vmName);
+
+            return isVMNameAvailableInVcenter(vmName, consistent);
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the MAC-address of the first network-adapter of a VM
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return The MAC-address
+     * @throws VMWareException If something goes wrong.
+     */
+    public String getMacAddressForVm(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getMacAddressForVm");
+
+        try {
+            VmInfo vm = consistent ? null : getMirroredVm(vmName);
+
+            if (vm != null && !vm.getMacAddresses().isEmpty())
+                return vm.getMacAddresses().get(0);
+
+            return coalesce("getMacAddressForVm/" + vmName, new Callable<String>() {
+                @Override
+                public String call() throws VMWareException {
+                    return getMacAddressForVm(vmName);
+                }
+            });
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the MAC-addresses of all network-adapters of many VMs
+     *
+     * @param vmNames Names of the VMs
+     * @param consistent If true vCenter is asked with one targeted call for all VMs, otherwise the inventory-mirror is used if it is in sync
+     * @return Map of VM-name to its MAC-addresses, null for unknown VMs
+     * @throws VMWareException If something goes wrong.
+     */
+    public Map<String, List<String>> getMacAddressesForVMs(final List<String> vmNames, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getMacAddressesForVMs");
+
+        final Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+
+        for (String vmName : vmNames)
+            result.put(vmName, null);
+
+        InventoryMirror mirror = consistent ? null : getSyncedMirror();
+
+        if (mirror != null) {
+            for (String vmName : vmNames) {
+                VmInfo vm = mirror.getVm(vmName);
+                result.put(vmName, vm == null ? null : vm.getMacAddresses());
+            }
+
+            timer.stop();
+            return result;
+        }
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<Map<String, List<String>>>() {
+                @Override
+                public Map<String, List<String>> call(ServiceInstance si) throws Exception {
+                    // a single VM is found by the index, many VMs are resolved by one paged retrieval of all names
+                    Map<String, ManagedObjectReference> vms = new HashMap<String, ManagedObjectReference>();
+
+                    if (vmNames.size() == 1) {
+                        ManagedEntity vm = inventoryIndex.find(si, "VirtualMachine", vmNames.get(0));
+
+                        if (vm != null)
+                            vms.put(vmNames.get(0), vm.getMOR());
+                    } else if (!vmNames.isEmpty()) {
+                        vms = getVms(si);
+                    }
+
+                    Map<String, ManagedObjectReference> requested = new HashMap<String, ManagedObjectReference>();
+
+                    for (String vmName : vmNames) {
+                        if (vms.containsKey(vmName))
+                            requested.put(vmName, vms.get(vmName));
+                    }
+
+                    Map<String, List<String>> macAddresses = getMacAddresses(si, new ArrayList<ManagedObjectReference>(requested.values()));
+
+                    for (Map.Entry<String, ManagedObjectReference> vm : requested.entrySet())
+                        result.put(vm.getKey(), macAddresses.get(vm.getValue().getVal()));
+
+                    return result;
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the overall-status of a VM
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return The status
+     * @throws VMWareException If something goes wrong.
+     */
+    public ManagedEntityStatus getStatusForVm(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getStatusForVm");
+
+        try {
+            VmInfo vm = consistent ? null : getMirroredVm(vmName);
+
+            if (vm != null && vm.getOverallStatus() != null)
+                return vm.getOverallStatus();
+
+            return coalesce("getStatusForVm/" + vmName, new Callable<ManagedEntityStatus>() {
+                @Override
+                public ManagedEntityStatus call() throws VMWareException {
+                    return getStatusForVm(vmName);
+                }
+            });
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the name of the HostSystem a VM is running on
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return Name of the HostSystem
+     * @throws VMWareException If something goes wrong.
+     */
+    public String getHostSystemForVM(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getHostSystemForVM");
+
+        try {
+            VmInfo vm = consistent ? null : getMirroredVm(vmName);
+
+            if (vm != null && vm.getHostName() != null)
+                return vm.getHostName();
+
+            return coalesce("getHostSystemForVM/" + vmName, new Callable<String>() {
+                @Override
+                public String call() throws VMWareException {
+                    return getHostSystemForVM(vmName);
+                }
+            });
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the power-state of a VM
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return The power-state or null if the VM does not exist
+     * @throws VMWareException If something goes wrong.
+     */
+    public VirtualMachinePowerState getPowerState(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getPowerState");
+
+        try {
+            VmInfo vm = consistent ? null : getMirroredVm(vmName);
+
+            if (vm != null && vm.getPowerState() != null)
+                return vm.getPowerState();
+
+            return coalesce("getPowerState/" + vmName, new Callable<VirtualMachinePowerState>() {
+                @Override
+                public VirtualMachinePowerState call() throws VMWareException {
+                    return getPowerState(vmName);
+                }
+            });
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Checks if VM-name is available
+     *
+     * @param vmName Name of the VM
+     * @return If VMName is available
+     * @throws VMWareException If something goes wrong.
+     */
+    public Boolean isVMNameAvailable(final String vmName) throws VMWareException {
+        return isVMNameAvailableInVcenter(vmName, true);
+    }
+
+    /**
+     * Checks in vCenter if VM-name is available
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true the inventory is searched, otherwise the inventory-index is used
+     * @return If VMName is available
+     * @throws VMWareException If something goes wrong.
+     */
+    private Boolean isVMNameAvailableInVcenter(final String vmName, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.isVMNameAvailable.vcenter");
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<Boolean>() {
+                @Override
+                public Boolean call(ServiceInstance si) throws Exception {
+                    VirtualMachine vm = (VirtualMachine) inventoryIndex.find(si, "VirtualMachine", vmName, consistent);
+
+                    if (vm == null)
+                        return Boolean.TRUE;
+                    else
+                        return Boolean.FALSE;
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    public String getMacAddressForVm(final String vmName) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getMacAddressForVm.vcenter");
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<String>() {
+                @Override
+                public String call(ServiceInstance si) throws Exception {
+                    VirtualMachine vm = (VirtualMachine) inventoryIndex.find(si, "VirtualMachine", vmName);
+
+                    if (vm == null)
+                        throw new VMWareException("Name of VM " + vmName + " not found");
+
+                    List<String> addresses = getMacAddresses(si, Collections.singletonList(vm.getMOR())).get(vm.getMOR().getVal());
+
+                    if (addresses == null || addresses.isEmpty())
+                        throw new VMWareException("VM " + vmName + " has no network-adapter");
+
+                    return addresses.get(0);
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    public ManagedEntityStatus getStatusForVm(final String vmName) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getStatusForVm.vcenter");
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<ManagedEntityStatus>() {
+                @Override
+                public ManagedEntityStatus call(ServiceInstance si) throws Exception {
+                    VirtualMachine vm = (VirtualMachine) inventoryIndex.find(si, "VirtualMachine", vmName);
+
+                    return vm.getOverallStatus();
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the overall-status of all VMs
+     *
+     * @return Map of VM-name to status
+     * @throws VMWareException If something goes wrong.
+     */
+    public HashMap<String, String> getStatusForAllVm() throws VMWareException {
+        return getStatusForAllVm(Constants.DEFAULT_RETRIEVE_MAX_OBJECTS);
+    }
+
+    /**
+     * Returns the overall-status of all VMs
+     *
+     * @param maxObjects Maximum number of VMs per page
+     * @return Map of VM-name to status
+     * @throws VMWareException If something goes wrong.
+     */
+    public HashMap<String, String> getStatusForAllVm(final int maxObjects) throws VMWareException {
+
+        final HashMap<String, String> statusMap = new HashMap<String, String>();
+
+        getStatusForAllVm(maxObjects, new VmStatusHandler() {
+            @Override
+            public void handle(String vmName, String status) {
+                statusMap.put(vmName, status);
+            }
+        });
+
+        return statusMap;
+    }
+
+    /**
+     * Passes the overall-status of all VMs to a handler, name and status are retrieved with one PropertyCollector-call per page and
+     * handled as soon as the page arrived
+     *
+     * @param maxObjects Maximum number of VMs per page
+     * @param handler Handler for every VM
+     * @throws VMWareException If something goes wrong.
+     */
+    public void getStatusForAllVm(final int maxObjects, final VmStatusHandler handler) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getStatusForAllVm");
+
+        try {
+            sessionPool.execute(new SessionPool.SessionCall<Void>() {
+                @Override
+                public Void call(ServiceInstance si) throws Exception {
+                    ContainerView view = null;
+
+                    try {
+                        view = PropertyCollectorHelper.createContainerView(si, "VirtualMachine");
+
+                        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                                PropertyCollectorHelper.createPropertySpec("VirtualMachine", "name", "overallStatus"));
+
+                        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, maxObjects,
+                                new PropertyCollectorHelper.ContentHandler() {
+                                    @Override
+                                    public void handle(ObjectContent content) throws Exception {
+                                        Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                                        ManagedEntityStatus status = (ManagedEntityStatus) properties.get("overallStatus");
+
+                                        handler.handle((String) properties.get("name"), status == null ? null : status.name());
+                                    }
+                                });
+
+                        return null;
+                    } finally {
+                        destroyView(view);
+                    }
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns a page of the VMs matching a filter, ordered by their page-key. The filter is applied to the inventory-mirror or, if it is not
+     * in sync or a consistent listing is requested, to the results of one paged PropertyCollector-retrieval before the VMs are collected, so
+     * the memory needed scales with the size of the page.
+     *
+     * @param filter The filter
+     * @param after Page-key of the last VM of the previous page (see <code>getPageKey</code>), null for the first page
+     * @param limit Maximum number of VMs of the page, 0 for all. One more VM is returned if there are further pages.
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return The VMs, MAC-addresses and portgroups are not set
+     * @throws VMWareException If something goes wrong.
+     */
+    public List<VmInfo> listVms(final VmFilter filter, final String after, final int limit, final boolean consistent) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.listVms");
+
+        final int max = limit > 0 ? limit + 1 : Integer.MAX_VALUE;
+        final TreeMap<String, VmInfo> page = new TreeMap<String, VmInfo>();
+
+        InventoryMirror mirror = consistent ? null : getSyncedMirror();
+
+        if (mirror != null) {
+            for (VmInfo vm : mirror.getVms()) {
+                String key = getPageKey(vm.getName(), endpoint, vm.getId());
+
+                if ((after == null || key.compareTo(after) > 0) && filter.matches(vm))
+                    addToPage(page, key, vm, max);
+            }
+
+            timer.stop();
+            return new ArrayList<VmInfo>(page.values());
+        }
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<List<VmInfo>>() {
+                @Override
+                public List<VmInfo> call(ServiceInstance si) throws Exception {
+                    ContainerView view = null;
+
+                    try {
+                        // the names of HostSystems and ResourcePools arrive with the VMs
+                        view = PropertyCollectorHelper.createContainerView(si, "VirtualMachine", "HostSystem", "ResourcePool");
+
+                        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                                PropertyCollectorHelper.createPropertySpec("VirtualMachine", "name", "runtime.powerState", "overallStatus",
+                                        "runtime.host", "resourcePool"),
+                                PropertyCollectorHelper.createPropertySpec("HostSystem", "name"),
+                                PropertyCollectorHelper.createPropertySpec("ResourcePool", "name"));
+
+                        final TreeMap<String, ObjectContent> candidates = new TreeMap<String, ObjectContent>();
+                        final Map<String, String> referencedNames = new HashMap<String, String>();
+
+                        // without placement-criteria the candidates are already the page
+                        final int maxCandidates = filter.hasPlacement() ? Integer.MAX_VALUE : max;
+
+                        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                                new PropertyCollectorHelper.ContentHandler() {
+                                    @Override
+                                    public void handle(ObjectContent content) {
+                                        Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                                        String name = (String) properties.get("name");
+
+                                        if (!"VirtualMachine".equals(content.getObj().getType())) {
+                                            if (name != null)
+                                                referencedNames.put(content.getObj().getVal(), name);
+                                            return;
+                                        }
+
+                                        if (name == null)
+                                            return;
+
+                                        String key = getPageKey(name, endpoint, content.getObj().getVal());
+
+                                        if ((after == null || key.compareTo(after) > 0) && filter.matches(name,
+                                                (VirtualMachinePowerState) properties.get("runtime.powerState"),
+                                                (ManagedEntityStatus) properties.get("overallStatus")))
+                                            addToPage(candidates, key, content, maxCandidates);
+                                    }
+                                });
+
+                        for (Map.Entry<String, ObjectContent> candidate : candidates.entrySet()) {
+
+                            Map<String, Object> properties = PropertyCollectorHelper.toMap(candidate.getValue().getPropSet());
+                            ManagedObjectReference host = (ManagedObjectReference) properties.get("runtime.host");
+                            ManagedObjectReference pool = (ManagedObjectReference) properties.get("resourcePool");
+
+                            VmInfo vm = new VmInfo(candidate.getValue().getObj().getVal(), (String) properties.get("name"),
+                                    (VirtualMachinePowerState) properties.get("runtime.powerState"),
+                                    (ManagedEntityStatus) properties.get("overallStatus"), host == null ? null : referencedNames.get(host.getVal()),
+                                    pool == null ? null : referencedNames.get(pool.getVal()), Collections.<String>emptyList(),
+                                    Collections.<String>emptyList());
+
+                            if (filter.matches(vm))
+                                addToPage(page, candidate.getKey(), vm, max);
+
+                            if (page.size() >= max)
+                                break;
+                        }
+
+                        return new ArrayList<VmInfo>(page.values());
+                    } finally {
+                        destroyView(view);
+                    }
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the key VMs are ordered by in pages. VM-names are unique only per folder and per vCenter, so the key compares like the tuple
+     * (name, endpoint, reference of the VM).
+     *
+     * @param name Name of the VM
+     * @param endpoint Name of the endpoint
+     * @param id Value of the reference of the VM
+     * @return The key
+     */
+    public static String getPageKey(final String name, final String endpoint, final String id) {
+        return name + '\u0000' + endpoint + '\u0000' + id;
+    }
+
+    /**
+     * Adds an entry to a page ordered by key, the page keeps only the first entries
+     */
+    private static <T> void addToPage(final TreeMap<String, T> page, final String key, final T value, final int max) {
+
+        if (page.size() >= max && key.compareTo(page.lastKey()) > 0)
+            return;
+
+        page.put(key, value);
+
+        if (page.size() > max)
+            page.pollLastEntry();
+    }
+
+    public Boolean changeVlan(final String vmName, final String netName, final String nicName) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.changeVlan");
+
+        try {
+            final ManagedObjectReference mor = findVmReference(vmName);
+
+            final VirtualMachineConfigSpec vmSpec = sessionPool.execute(new SessionPool.SessionCall<VirtualMachineConfigSpec>() {
+                @Override
+                public VirtualMachineConfigSpec call(ServiceInstance si) throws Exception {
+                    PortgroupCache.Portgroup portgroup = portgroupCache.get(si, netName, null);
+
+                    if (portgroup == null)
+                        throw new VMWareException("Could not find portgroup " + netName);
+
+                    String key = portgroup.getKey();
+
+                    VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
+
+                    String uuid = portgroup.getSwitchUuid();
+
+                    ArrayList<VirtualDeviceConfigSpec> nicSpecList = new ArrayList<VirtualDeviceConfigSpec>();
+
+                    boolean nicFound = false;
+
+                    VirtualDevice[] vds = getDevices(si, Collections.singletonList(mor)).get(mor.getVal());
+                    for (VirtualDevice vd : vds == null ? new VirtualDevice[0] : vds) {
+                        if (vd instanceof VirtualEthernetCard) {
+
+                            VirtualDeviceConfigSpec nicSpec = new VirtualDeviceConfigSpec();
+                            nicSpec.setOperation(VirtualDeviceConfigSpecOperation.edit);
+
+                            VirtualEthernetCard nic = (VirtualEthernetCard) vd;
+
+                            logger.log(Level.FINE, "Nic: " + nic.getDeviceInfo().getLabel());
+                            if (nic.getDeviceInfo().getLabel().equalsIgnoreCase(nicName)) {
+                                logger.log(Level.FINE, "Found nic " + nicName);
+
+                                VirtualEthernetCard newNic = new VirtualVmxnet3();
+                                newNic.setKey(nic.getKey());
+                                newNic.setDeviceInfo(nic.getDeviceInfo());
+
+                                newNic.getDeviceInfo().setLabel(nicName);
+
+                                VirtualEthernetCardDistributedVirtualPortBackingInfo backing9 =
+                                        new VirtualEthernetCardDistributedVirtualPortBackingInfo();
+
+                                DistributedVirtualSwitchPortConnection port10 = new DistributedVirtualSwitchPortConnection();
+                                port10.setSwitchUuid(uuid);
+                                port10.setPortgroupKey(key);
+                                backing9.setPort(port10);
+
+                                newNic.setBacking(backing9);
+                                newNic.setAddressType("assigned");
+                                newNic.setMacAddress(nic.getMacAddress());
+                                newNic.setControllerKey(nic.getControllerKey());
+                                newNic.setUnitNumber(nic.getUnitNumber());
+
+                                VirtualDeviceConnectInfo connectable11 = new VirtualDeviceConnectInfo();
+                                connectable11.startConnected = true;
+                                connectable11.allowGuestControl = true;
+                                connectable11.connected = true;
+                                connectable11.status = "untried";
+
+                                newNic.setConnectable(connectable11);
+
+                                logger.log(Level.FINE, "Setting UUID: " + uuid);
+                                logger.log(Level.FINE, "Setting portgroupKey: " + key);
+                                logger.log(Level.FINE, "Setting summary: " + netName);
+                                logger.log(Level.FINE, "Switch: " + portgroup.getSwitchName());
+
+                                nicSpec.setDevice(newNic);
+
+                                nicSpecList.add(nicSpec);
+
+                                nicFound = true;
+                            }
+
+                        }
+                    }
+
+                    if (!nicFound)
+                        throw new VMWareException("Could not find nic " + nicName);
+
+                    VirtualDeviceConfigSpec[] configSpec = new VirtualDeviceConfigSpec[nicSpecList.size()];
+                    nicSpecList.toArray(configSpec);
+
+                    vmSpec.setDeviceChange(configSpec);
+
+                    return vmSpec;
+                }
+            });
+
+            AdmissionController.Permit permit = admitOperation(vmName);
+
+            try {
+                return submitAndWait(new SessionPool.SessionCall<Task>() {
+                    @Override
+                    public Task call(ServiceInstance si) throws Exception {
+                        return new VirtualMachine(si.getServerConnection(), mor).reconfigVM_Task(vmSpec);
+                    }
+                });
+            } finally {
+                permit.release();
+            }
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    public Boolean vmOperation(final String vmName, final OpEnum opEnum) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.vmOperation");
+
+        try {
+            ManagedObjectReference mor = findVmReference(vmName);
+
+            AdmissionController.Permit permit = admitOperation(vmName);
+
+            try {
+                return executeOperation(mor, opEnum);
+            } finally {
+                permit.release();
+            }
+        } catch (ToolsUnavailable exc) {
+            if (opEnum == OpEnum.SHUTDOWN) {
+                return this.vmOperation(vmName, OpEnum.POWER_OFF);
+            }
+
+            return Boolean.FALSE;
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
+        } catch (PlatformConfigFault f) {
+            logger.log(Level.FINE, f.toString(), f);
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            logger.log(Level.FINE, exc.toString(), exc);
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            logger.log(Level.FINE, exc.toString(), exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Executes a power-operation on many VMs. VMs given by name are resolved by the inventory-mirror or the inventory-index, all VMs are
+     * read only to match a pattern. The operations are executed concurrently by the shared power-operation workers, every operation
+     * borrows its own session to start its task. A SHUTDOWN of a VM without VMware-tools falls back to POWER_OFF.
+     *
+     * @param vmNames Names of the VMs, may be null
+     * @param pattern Regular expression the names of further VMs have to match, may be null
+     * @param opEnum The operation
+     * @param maxConcurrent Maximum number of concurrent operations
+     * @return The outcome per VM, VMs given by name come first
+     * @throws VMWareException If the targets can not be resolved
+     */
+    public List<PowerResult> vmOperations(final List<String> vmNames, final String pattern, final OpEnum opEnum, final int maxConcurrent)
+            throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.vmOperations");
+
+        try {
+
+            admission.checkCapacity();
+
+            Map<String, ManagedObjectReference> targets = resolveVms(vmNames, pattern);
+            List<PowerResult> results = new ArrayList<PowerResult>();
+
+            if (targets.isEmpty())
+                return results;
+
+            final TaskStatus status = AsyncTaskRegistry.current();
+            final String caller = AdmissionController.getCaller();
+            final AtomicInteger finished = new AtomicInteger();
+            final int total = targets.size();
+
+            // the workers are shared by all requests, a request uses at most maxConcurrent of them
+            final Semaphore slots = new Semaphore(Math.max(1, Math.min(maxConcurrent, total)));
+            Map<Future<?>, PowerResult> futures = new LinkedHashMap<Future<?>, PowerResult>();
+
+            for (Map.Entry<String, ManagedObjectReference> target : targets.entrySet()) {
+
+                final PowerResult result = new PowerResult(target.getKey(), opEnum);
+                final ManagedObjectReference mor = target.getValue();
+                final VmInfo mirrored = getMirroredVm(target.getKey());
+                results.add(result);
+
+                if (mor == null) {
+                    result.setError("Could not find VM " + target.getKey());
+                    finished.incrementAndGet();
+                    continue;
+                }
+
+                slots.acquire();
+
+                try {
+                    futures.put(getPowerExecutor().submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            long start = System.currentTimeMillis();
+                            AdmissionController.Permit permit = null;
+
+                            try {
+                                try {
+                                    permit = admission.admit(caller, mirrored == null ? null : mirrored.getHostName(), null);
+                                    result.setSuccess(executeOperation(mor, opEnum));
+                                } catch (ToolsUnavailable exc) {
+                                    if (opEnum != OpEnum.SHUTDOWN)
+                                        throw exc;
+
+                                    result.setOperation(OpEnum.POWER_OFF);
+                                    result.setSuccess(executeOperation(mor, OpEnum.POWER_OFF));
+                                }
+                            } catch (Exception exc) {
+                                logger.log(Level.FINE, exc.toString(), exc);
+                                result.setError(getMessage(exc));
+                            } finally {
+                                slots.release();
+
+                                if (permit != null)
+                                    permit.release();
+
+                                result.setDuration(System.currentTimeMillis() - start);
+
+                                if (status != null)
+                                    status.setProgress(finished.incrementAndGet() * 100 / total);
+                            }
+                        }
+                    }), result);
+                } catch (RejectedExecutionException exc) {
+                    slots.release();
+                    throw exc;
+                }
+            }
+
+            // an operation waits at most for its admission and its task
+            for (Map.Entry<Future<?>, PowerResult> future : futures.entrySet()) {
+                try {
+                    future.getKey().get(Constants.ADMISSION_TIMEOUT + taskTimeout, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException exc) {
+                    future.getKey().cancel(true);
+                    future.getValue().setError("Operation not finished after " + taskTimeout / 1000 + " seconds");
+                }
+            }
+
+            return results;
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Resolves the targets of a batch-operation. VMs given by name are looked up in the inventory-mirror if it is in sync or in the
+     * inventory-index, the names of all VMs are read only if a pattern is given and the mirror is not in sync.
+     *
+     * @param vmNames Names of the VMs, may be null
+     * @param pattern Regular expression the names of further VMs have to match, may be null
+     * @return Map of VM-name to VM-MOR, null for unknown VMs given by name
+     * @throws VMWareException If the pattern is invalid or the lookup fails
+     */
+    private Map<String, ManagedObjectReference> resolveVms(final List<String> vmNames, final String pattern) throws VMWareException {
+
+        try {
+            final Pattern regex = pattern == null ? null : Pattern.compile(pattern);
+            final InventoryMirror mirror = getSyncedMirror();
+
+            return sessionPool.execute(new SessionPool.SessionCall<Map<String, ManagedObjectReference>>() {
+                @Override
+                public Map<String, ManagedObjectReference> call(ServiceInstance si) throws Exception {
+                    Map<String, ManagedObjectReference> targets = new LinkedHashMap<String, ManagedObjectReference>();
+
+                    if (vmNames != null) {
+                        for (String vmName : vmNames) {
+                            ManagedObjectReference mor = mirror == null ? null : mirror.getVmReference(vmName);
+
+                            if (mor == null) {
+                                ManagedEntity vm = inventoryIndex.find(si, "VirtualMachine", vmName);
+                                mor = vm == null ? null : vm.getMOR();
+                            }
+
+                            targets.put(vmName, mor);
+                        }
+                    }
+
+                    if (regex == null)
+                        return targets;
+
+                    Map<String, ManagedObjectReference> vms = new TreeMap<String, ManagedObjectReference>();
+
+                    if (mirror != null) {
+                        for (VmInfo vm : mirror.getVms())
+                            vms.put(vm.getName(), mirror.getVmReference(vm.getName()));
+                    } else {
+                        vms.putAll(getVms(si));
+                    }
+
+                    for (Map.Entry<String, ManagedObjectReference> vm : vms.entrySet()) {
+                        if (vm.getValue() != null && regex.matcher(vm.getKey()).matches() && !targets.containsKey(vm.getKey()))
+                            targets.put(vm.getKey(), vm.getValue());
+                    }
+
+                    return targets;
+                }
+            });
+        } catch (VMWareException exc) {
+            throw exc;
+        } catch (Exception exc) {
+            throw new VMWareException(exc);
+        }
+    }
+
+    /**
+     * Executes a power-operation on a VM and waits for its task. The session is borrowed only to start the operation, the task is awaited
+     * without it.
+     *
+     * @param mor Reference of the VM
+     * @param opEnum The operation
+     * @return If the operation succeeded
+     * @throws Exception ToolsUnavailable if a guest-operation needs the VMware-tools
+     */
+    private boolean executeOperation(final ManagedObjectReference mor, final OpEnum opEnum) throws Exception {
 
-    private VMWareHelper(final String username, final String password, final String vmwareUrl) {
-        loginConfiguration = new LoginConfiguration(username, password, vmwareUrl);
+        return submitAndWait(new SessionPool.SessionCall<Task>() {
+            @Override
+            public Task call(ServiceInstance si) throws Exception {
+                return startOperation(new VirtualMachine(si.getServerConnection(), mor), opEnum);
+            }
+        });
     }
 
     /**
-     * Returns an instance of VMWare-Helper
+     * Submits the task of an admitted operation and waits for it. The session is borrowed only to submit the task, so waiting operations
+     * do not hold the sessions needed by other requests. The submission is not retried on a lost session, so a task is never submitted twice.
      *
-     * @param username Username
-     * @param password Password
-     * @param vmwareUrl URL
-     * @return The instance
+     * @param submit Submits the task with the borrowed session, returns null for operations without task
+     * @return If the task succeeded
+     * @throws Exception If the task can not be submitted or is not finished within the task-timeout
      */
-    public static VMWareHelper getInstance(final String username, final String password, final String vmwareUrl) {
+    private boolean submitAndWait(final SessionPool.SessionCall<Task> submit) throws Exception {
 
-        if (VMWARE == null) {
-            VMWARE = new VMWareHelper(username, password, vmwareUrl);
-        }
+        Task task = sessionPool.executeOnce(submit);
 
-        return VMWARE;
+        return task == null || Task.SUCCESS.equals(waitForTask(task));
     }
 
     /**
-     * Returns a server-instance
+     * Looks up a VM by the inventory-index with a borrowed session
      *
-     * @return The server-instance
-     * @throws Exception The something goes wrong
+     * @param vmName Name of the VM
+     * @return Reference of the VM
+     * @throws Exception VMWareException if the VM does not exist
      */
-    private ServiceInstance getServerInstance() throws MalformedURLException, RemoteException {
+    private ManagedObjectReference findVmReference(final String vmName) throws Exception {
+
+        return sessionPool.execute(new SessionPool.SessionCall<ManagedObjectReference>() {
+            @Override
+            public ManagedObjectReference call(ServiceInstance si) throws Exception {
+                ManagedEntity vm = inventoryIndex.find(si, "VirtualMachine", vmName);
 
-        if (serviceInstance == null) {
+                if (vm == null)
+                    throw new VMWareException("VM " + vmName + " is not found!");
 
-            logger.info("Server instance is NULL ... creating a new connection");
+                return vm.getMOR();
+            }
+        });
+    }
 
-            URL url = new URL(loginConfiguration.getVmwareUrl());
-            serviceInstance = new ServiceInstance(url, loginConfiguration.getUserName(), loginConfiguration.getPassword(), true);
+    /**
+     * Starts a power-operation on a VM
+     *
+     * @param vm The VM
+     * @param opEnum The operation
+     * @return The task of the operation, null for guest-operations
+     * @throws Exception ToolsUnavailable if a guest-operation needs the VMware-tools
+     */
+    private static Task startOperation(final VirtualMachine vm, final OpEnum opEnum) throws Exception {
+
+        Task task = null;
+
+        switch (opEnum) {
+            case POWER_OFF:
+                task = vm.powerOffVM_Task();
+                break;
+            case POWER_ON:
+                task = vm.powerOnVM_Task(null);
+                break;
+            case REBOOT:
+                vm.rebootGuest();
+                break;
+            case RESET:
+                task = vm.resetVM_Task();
+                break;
+            case SHUTDOWN:
+                vm.shutdownGuest();
+                break;
+            case STANDBY:
+                vm.standbyGuest();
+                break;
+            case SUSPEND:
+                task = vm.suspendVM_Task();
+                break;
         }
 
-        return serviceInstance;
+        return task;
     }
 
-    public void logout() throws VMWareException {
+    public Boolean moveVmToHostSystem(final String vmName, final String hostName) throws VMWareException {
 
-        logger.info("Closing session");
+        Metrics.Timer timer = Metrics.getInstance().start("helper.moveVmToHostSystem");
 
         try {
-            if (serviceInstance != null) {
-                serviceInstance.getSessionManager().logout();
-                serviceInstance = null;
+            final ManagedObjectReference mor = findVmReference(vmName);
+
+            final VirtualMachineRelocateSpec relSpec = sessionPool.execute(new SessionPool.SessionCall<VirtualMachineRelocateSpec>() {
+                @Override
+                public VirtualMachineRelocateSpec call(ServiceInstance si) throws Exception {
+                    HostSystem hostSystem = findHostSystem(si, hostName);
+
+                    VirtualMachineRelocateSpec relSpec = new VirtualMachineRelocateSpec();
+                    relSpec.setHost(hostSystem.getMOR());
+
+                    return relSpec;
+                }
+            });
+
+            // the operation is counted for the target-host
+            AdmissionController.Permit permit = admission.admit(AdmissionController.getCaller(), hostName, null);
+
+            try {
+                return submitAndWait(new SessionPool.SessionCall<Task>() {
+                    @Override
+                    public Task call(ServiceInstance si) throws Exception {
+                        return new VirtualMachine(si.getServerConnection(), mor).relocateVM_Task(relSpec);
+                    }
+                });
+            } finally {
+                permit.release();
             }
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
         } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (com.vmware.vim25.NotAuthenticated authExc) {
-            logger.info("Problem: NotAuthenticated, setting instance to NULL");
-            serviceInstance = null;
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
     }
 
     /**
-     * Checks if VM-name is available
+     * Returns the HostSystem of a VM, the VM is found by the inventory-index and only its runtime.host is read
      *
      * @param vmName Name of the VM
-     * @return If VMName is available
+     * @return Name of the HostSystem
      * @throws VMWareException If something goes wrong.
      */
-    public Boolean isVMNameAvailable(final String vmName) throws VMWareException {
-        ServiceInstance si = null;
+    public String getHostSystemForVM(final String vmName) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getHostSystemForVM.vcenter");
 
         try {
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+            return sessionPool.execute(new SessionPool.SessionCall<String>() {
+                @Override
+                public String call(ServiceInstance si) throws Exception {
+                    VirtualMachine vm = (VirtualMachine) inventoryIndex.find(si, "VirtualMachine", vmName);
+
+                    if (vm == null)
+                        throw new VMWareException("Could not find VM " + vmName);
 
-            if (vm == null)
-                return Boolean.TRUE;
-            else
-                return Boolean.FALSE;
+                    ManagedObjectReference host = (ManagedObjectReference) vm.getPropertyByPath("runtime.host");
 
+                    return host == null ? null : getHostName(si, host);
+                }
+            });
         } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
     }
 
-    public String getMacAddressForVm(final String vmName) throws VMWareException {
-        ServiceInstance si = null;
+    /**
+     * Returns the HostSystems of many VMs
+     *
+     * @param vmNames Names of the VMs
+     * @param consistent If true vCenter is asked with one paged retrieval, otherwise the inventory-mirror is used if it is in sync
+     * @return Map of VM-name to the name of its HostSystem, null for unknown VMs
+     * @throws VMWareException If something goes wrong.
+     */
+    public Map<String, String> getHostSystemsForVMs(final List<String> vmNames, final boolean consistent) throws VMWareException {
 
-        try {
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getHostSystemsForVMs");
 
-            VirtualDevice[] devices = vm.getConfig().getHardware().getDevice();
-            VirtualEthernetCard vec = null;
-            for (VirtualDevice dev : devices) {
-                if (dev instanceof VirtualEthernetCard) {
-                    vec = (VirtualEthernetCard) dev;
-                    break;
-                }
-            }
+        final Map<String, String> placements = new LinkedHashMap<String, String>();
 
-            return vec.getMacAddress();
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (RemoteException exc) {
-            throw new VMWareException(exc);
-        } catch (Exception exc) {
-            throw new VMWareException(exc);
-        }
-    }
+        for (String vmName : vmNames)
+            placements.put(vmName, null);
 
-    public ManagedEntityStatus getStatusForVm(final String vmName) throws VMWareException {
+        InventoryMirror mirror = consistent ? null : getSyncedMirror();
 
-        ServiceInstance si = null;
+        if (mirror != null) {
+            for (String vmName : vmNames) {
+                VmInfo vm = mirror.getVm(vmName);
+                placements.put(vmName, vm == null ? null : vm.getHostName());
+            }
 
-        try {
+            timer.stop();
+            return placements;
+        }
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<Map<String, String>>() {
+                @Override
+                public Map<String, String> call(ServiceInstance si) throws Exception {
+                    ContainerView view = null;
+
+                    try {
+                        view = PropertyCollectorHelper.createContainerView(si, "VirtualMachine");
+
+                        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                                PropertyCollectorHelper.createPropertySpec("VirtualMachine", "name", "runtime.host"));
+
+                        final Map<String, ManagedObjectReference> hosts = new HashMap<String, ManagedObjectReference>();
+
+                        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                                new PropertyCollectorHelper.ContentHandler() {
+                                    @Override
+                                    public void handle(ObjectContent content) {
+                                        Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                                        String name = (String) properties.get("name");
+
+                                        if (placements.containsKey(name))
+                                            hosts.put(name, (ManagedObjectReference) properties.get("runtime.host"));
+                                    }
+                                });
+
+                        for (Map.Entry<String, ManagedObjectReference> host : hosts.entrySet()) {
+                            if (host.getValue() != null)
+                                placements.put(host.getKey(), getHostName(si, host.getValue()));
+                        }
 
-            return vm.getOverallStatus();
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+                        return placements;
+                    } finally {
+                        destroyView(view);
+                    }
+                }
+            });
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
     }
 
-    public HashMap<String, String> getStatusForAllVm() throws VMWareException {
+    /**
+     * Returns fields of many VMs with one paged PropertyCollector-retrieval. Only the property-paths of the requested fields are read,
+     * the names of referenced HostSystems, ResourcePools and networks are read with the same retrieval.
+     *
+     * @param vmNames Names of the VMs, may be null
+     * @param pattern Regular expression the names of further VMs have to match, may be null
+     * @param fields The fields
+     * @return Map of VM-name to its fields, null for unknown VMs given by name. VMs given by name come first.
+     * @throws VMWareException If the pattern is invalid or the retrieval fails
+     */
+    public Map<String, Map<VmField, Object>> queryVms(final List<String> vmNames, final String pattern, final Set<VmField> fields)
+            throws VMWareException {
 
-        ServiceInstance si = null;
+        Metrics.Timer timer = Metrics.getInstance().start("helper.queryVms");
 
-        HashMap<String, String> statusMap = new HashMap<String, String>();
+        final Map<String, Map<VmField, Object>> results = new LinkedHashMap<String, Map<VmField, Object>>();
+        final Map<String, Map<String, Object>> matches = new TreeMap<String, Map<String, Object>>();
+        final Map<String, String> referencedNames = new HashMap<String, String>();
 
-        try {
+        if (vmNames != null) {
+            for (String vmName : vmNames)
+                results.put(vmName, null);
+        }
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            ManagedEntity[] mangedEntities = new InventoryNavigator(rootFolder).searchManagedEntities("VirtualMachine");
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<Map<String, Map<VmField, Object>>>() {
+                @Override
+                public Map<String, Map<VmField, Object>> call(ServiceInstance si) throws Exception {
+                    ContainerView view = null;
 
-            for (ManagedEntity entity : mangedEntities) {
+                    try {
+                        final Pattern regex = pattern == null ? null : Pattern.compile(pattern);
 
-                VirtualMachine vm = (VirtualMachine) entity;
-                statusMap.put(vm.getName(), vm.getOverallStatus().name());
-            }
+                        List<String> paths = new ArrayList<String>();
+                        paths.add("name");
 
-            return statusMap;
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (RemoteException exc) {
-            throw new VMWareException(exc);
-        } catch (Exception exc) {
-            throw new VMWareException(exc);
-        }
-    }
+                        for (VmField field : fields)
+                            paths.add(field.getPath());
 
-    public Boolean changeVlan(final String vmName, final String netName, final String nicName) throws VMWareException {
+                        // the referenced objects are part of the view, so their names arrive with the VMs
+                        List<String> types = new ArrayList<String>();
+                        List<PropertySpec> propertySpecs = new ArrayList<PropertySpec>();
+                        types.add("VirtualMachine");
+                        propertySpecs.add(PropertyCollectorHelper.createPropertySpec("VirtualMachine", paths.toArray(new String[paths.size()])));
 
-        boolean retVal = false;
+                        if (fields.contains(VmField.HOST)) {
+                            types.add("HostSystem");
+                            propertySpecs.add(PropertyCollectorHelper.createPropertySpec("HostSystem", "name"));
+                        }
 
-        ServiceInstance si = null;
+                        if (fields.contains(VmField.RESOURCE_POOL)) {
+                            types.add("ResourcePool");
+                            propertySpecs.add(PropertyCollectorHelper.createPropertySpec("ResourcePool", "name"));
+                        }
 
-        try {
+                        if (fields.contains(VmField.NETWORKS)) {
+                            types.add("Network");
+                            propertySpecs.add(PropertyCollectorHelper.createPropertySpec("Network", "name"));
+                        }
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+                        view = PropertyCollectorHelper.createContainerView(si, types.toArray(new String[types.size()]));
 
-            Network network = (Network) new InventoryNavigator(rootFolder).searchManagedEntity("Network", netName);
+                        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                                propertySpecs.toArray(new PropertySpec[propertySpecs.size()]));
 
-            if (network == null)
-                throw new VMWareException("Could not find network " + netName);
+                        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                                new PropertyCollectorHelper.ContentHandler() {
+                                    @Override
+                                    public void handle(ObjectContent content) {
+                                        Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                                        String name = (String) properties.get("name");
 
-            DistributedVirtualSwitch dvs = null;
+                                        if (name == null)
+                                            return;
 
-            ManagedEntity[] entity = new InventoryNavigator(rootFolder).searchManagedEntities("DistributedVirtualSwitch");
+                                        if (!"VirtualMachine".equals(content.getObj().getType())) {
+                                            referencedNames.put(content.getObj().getVal(), name);
 
-            String key = "";
-            DVPortgroupConfigInfo description = null;
+                                            if ("HostSystem".equals(content.getObj().getType()))
+                                                hostNames.put(content.getObj().getVal(), name);
+                                        } else if (results.containsKey(name) || (regex != null && regex.matcher(name).matches())) {
+                                            matches.put(name, properties);
+                                        }
+                                    }
+                                });
 
-            boolean found = false;
-            for (ManagedEntity me : entity) {
-                if (me instanceof DistributedVirtualSwitch) {
-                    DistributedVirtualSwitch tmpDvs = (DistributedVirtualSwitch) me;
-                    DistributedVirtualPortgroup[] vpgs = tmpDvs.getPortgroup();
-                    for (DistributedVirtualPortgroup vpg : vpgs) {
+                        for (Map.Entry<String, Map<String, Object>> match : matches.entrySet()) {
 
-                        if (netName.equals(vpg.getName())) {
+                            Map<VmField, Object> values = new LinkedHashMap<VmField, Object>();
 
-                            key = vpg.getConfig().getKey();
-                            description = vpg.getConfig();
+                            for (VmField field : fields)
+                                values.put(field, toFieldValue(field, match.getValue().get(field.getPath()), referencedNames));
 
-                            dvs = tmpDvs;
-                            found = true;
-                            break;
+                            results.put(match.getKey(), values);
                         }
-                    }
 
-                    if (found) {
-                        break;
+                        return results;
+                    } finally {
+                        destroyView(view);
                     }
                 }
-            }
+            });
+        } catch (PatternSyntaxException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Converts a retrieved property to the value of a field: enums to their name, references to the name of the referenced object and
+     * devices to the MAC-addresses of the network-adapters
+     */
+    private static Object toFieldValue(final VmField field, final Object value, final Map<String, String> referencedNames) {
 
-            VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
+        if (value == null)
+            return null;
 
-            VirtualMachineConfigInfo vmConfigInfo = vm.getConfig();
+        switch (field) {
+            case POWER_STATE:
+            case OVERALL_STATUS:
+                return ((Enum<?>) value).name();
+            case HOST:
+            case RESOURCE_POOL:
+                return referencedNames.get(((ManagedObjectReference) value).getVal());
+            case NETWORKS:
+                List<String> networks = new ArrayList<String>();
+                for (ManagedObjectReference network : (ManagedObjectReference[]) value)
+                    networks.add(referencedNames.get(network.getVal()));
+                return networks;
+            case MAC_ADDRESSES:
+                List<String> addresses = new ArrayList<String>();
+                for (VirtualDevice device : (VirtualDevice[]) value) {
+                    if (device instanceof VirtualEthernetCard)
+                        addresses.add(((VirtualEthernetCard) device).getMacAddress());
+                }
+                return addresses;
+            default:
+                return value;
+        }
+    }
 
-            String uuid = dvs.getConfig().getUuid();
+    /**
+     * Returns the name of a HostSystem, the names of all HostSystems are read at once and cached
+     *
+     * @param si The server-instance
+     * @param host MOR of the HostSystem
+     * @return The name
+     * @throws Exception If the names can not be read
+     */
+    private String getHostName(final ServiceInstance si, final ManagedObjectReference host) throws Exception {
 
-            ArrayList<VirtualDeviceConfigSpec> nicSpecList = new ArrayList<VirtualDeviceConfigSpec>();
+        if (System.currentTimeMillis() - hostNamesLoaded > Constants.INVENTORY_INDEX_TTL)
+            hostNames.clear();
 
-            boolean nicFound = false;
+        String name = hostNames.get(host.getVal());
 
-            VirtualDevice[] vds = vmConfigInfo.getHardware().getDevice();
-            for (VirtualDevice vd : vds) {
-                if (vd instanceof VirtualEthernetCard) {
+        if (name != null)
+            return name;
 
-                    VirtualDeviceConfigSpec nicSpec = new VirtualDeviceConfigSpec();
-                    nicSpec.setOperation(VirtualDeviceConfigSpecOperation.edit);
+        ContainerView view = null;
 
-                    VirtualEthernetCard nic = (VirtualEthernetCard) vd;
+        try {
+            view = PropertyCollectorHelper.createContainerView(si, "HostSystem");
 
-                    logger.log(Level.FINE, "Nic: " + nic.getDeviceInfo().getLabel());
-                    if (nic.getDeviceInfo().getLabel().equalsIgnoreCase(nicName)) {
-                        logger.log(Level.FINE, "Found nic " + nicName);
+            PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                    PropertyCollectorHelper.createPropertySpec("HostSystem", "name"));
 
-                        VirtualEthernetCard newNic = new VirtualVmxnet3();
-                        newNic.setKey(nic.getKey());
-                        newNic.setDeviceInfo(nic.getDeviceInfo());
+            PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                    new PropertyCollectorHelper.ContentHandler() {
+                        @Override
+                        public void handle(ObjectContent content) {
+                            Object hostName = PropertyCollectorHelper.toMap(content.getPropSet()).get("name");
 
-                        newNic.getDeviceInfo().setLabel(nicName);
+                            if (hostName != null)
+                                hostNames.put(content.getObj().getVal(), (String) hostName);
+                        }
+                    });
 
-                        VirtualEthernetCardDistributedVirtualPortBackingInfo backing9 = new VirtualEthernetCardDistributedVirtualPortBackingInfo();
+            hostNamesLoaded = System.currentTimeMillis();
+        } finally {
+            destroyView(view);
+        }
 
-                        DistributedVirtualSwitchPortConnection port10 = new DistributedVirtualSwitchPortConnection();
-                        port10.setSwitchUuid(uuid);
-                        port10.setPortgroupKey(key);
-                        backing9.setPort(port10);
+        return hostNames.get(host.getVal());
+    }
 
-                        newNic.setBacking(backing9);
-                        newNic.setAddressType("assigned");
-                        newNic.setMacAddress(nic.getMacAddress());
-                        newNic.setControllerKey(nic.getControllerKey());
-                        newNic.setUnitNumber(nic.getUnitNumber());
+    public VirtualMachinePowerState getPowerState(final String vmName) throws VMWareException {
 
-                        VirtualDeviceConnectInfo connectable11 = new VirtualDeviceConnectInfo();
-                        connectable11.startConnected = true;
-                        connectable11.allowGuestControl = true;
-                        connectable11.connected = true;
-                        connectable11.status = "untried";
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getPowerState.vcenter");
 
-                        newNic.setConnectable(connectable11);
+        try {
+            // lookups of other VMs within the batch-window are read with the same call
+            return powerStates.get(vmName);
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException("Problems with " + vmName, f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException("Problems with " + vmName, exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException("Problems with " + vmName, exc));
+        } finally {
+            timer.stop();
+        }
+    }
 
-                        logger.log(Level.FINE, "Setting UUID: " + uuid);
-                        logger.log(Level.FINE, "Setting portgroupKey: " + key);
-                        logger.log(Level.FINE, "Setting summary: " + netName);
-                        logger.log(Level.FINE, "Port description: " + description.getNumPorts());
+    /**
+     * Reads runtime.powerState of many VMs with one PropertyCollector-call, the VMs are found by the inventory-index
+     *
+     * @param vmNames Names of the VMs
+     * @return Map of VM-name to power-state, unknown VMs are missing
+     */
+    private Map<String, VirtualMachinePowerState> loadPowerStates(final Set<String> vmNames) throws Exception {
 
-                        nicSpec.setDevice(newNic);
+        return sessionPool.execute(new SessionPool.SessionCall<Map<String, VirtualMachinePowerState>>() {
+            @Override
+            public Map<String, VirtualMachinePowerState> call(ServiceInstance si) throws Exception {
+                final Map<String, VirtualMachinePowerState> states = new HashMap<String, VirtualMachinePowerState>();
+                final Map<String, String> names = new HashMap<String, String>();
+                List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>();
 
-                        nicSpecList.add(nicSpec);
+                for (String vmName : vmNames) {
+                    ManagedEntity vm = inventoryIndex.find(si, "VirtualMachine", vmName);
 
-                        nicFound = true;
-                    }
+                    if (vm == null)
+                        continue;
 
+                    vms.add(vm.getMOR());
+                    names.put(vm.getMOR().getVal(), vmName);
                 }
+
+                if (vms.isEmpty())
+                    return states;
+
+                PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(vms,
+                        PropertyCollectorHelper.createPropertySpec("VirtualMachine", "runtime.powerState"));
+
+                PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                        new PropertyCollectorHelper.ContentHandler() {
+                            @Override
+                            public void handle(ObjectContent content) {
+                                Object state = PropertyCollectorHelper.toMap(content.getPropSet()).get("runtime.powerState");
+
+                                if (state != null)
+                                    states.put(names.get(content.getObj().getVal()), (VirtualMachinePowerState) state);
+                            }
+                        });
+
+                return states;
             }
+        });
+    }
 
-            if (!nicFound)
-                throw new VMWareException("Could not find nic " + nicName);
+    /**
+     * Deletes a VM
+     *
+     * @param vmName Name of VM
+     * @return A boolean value that indicates if deletion succeeded or failed
+     * @throws VMWareException wraps exceptions from vijava
+     */
+    public Boolean deleteVM(final String vmName) throws VMWareException {
 
-            VirtualDeviceConfigSpec[] configSpec = new VirtualDeviceConfigSpec[nicSpecList.size()];
-            nicSpecList.toArray(configSpec);
+        Metrics.Timer timer = Metrics.getInstance().start("helper.deleteVM");
 
-            vmSpec.setDeviceChange(configSpec);
+        try {
+            final ManagedObjectReference mor = findVmReference(vmName);
 
-            Task vmTask = vm.reconfigVM_Task(vmSpec);
+            VirtualMachinePowerState powerState = sessionPool.execute(new SessionPool.SessionCall<VirtualMachinePowerState>() {
+                @Override
+                public VirtualMachinePowerState call(ServiceInstance si) throws Exception {
+                    return new VirtualMachine(si.getServerConnection(), mor).getRuntime().getPowerState();
+                }
+            });
 
-            String result = vmTask.waitForTask();
+            logger.log(Level.FINE, "VM-State: " + powerState.name());
+            if (powerState == VirtualMachinePowerState.poweredOn)
+                vmOperation(vmName, OpEnum.SHUTDOWN);
 
-            retVal = result.equals(Task.SUCCESS);
+            AdmissionController.Permit permit = admitOperation(vmName);
 
+            try {
+                return submitAndWait(new SessionPool.SessionCall<Task>() {
+                    @Override
+                    public Task call(ServiceInstance si) throws Exception {
+                        return new VirtualMachine(si.getServerConnection(), mor).destroy_Task();
+                    }
+                });
+            } finally {
+                inventoryIndex.invalidate(mor);
+                permit.release();
+            }
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
         } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
-
-        return retVal;
     }
 
-    public Boolean vmOperation(final String vmName, final OpEnum opEnum) throws VMWareException {
-
-        boolean retVal;
+    public List<String> getAllHostSystems() throws VMWareException {
 
-        ServiceInstance si = null;
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getAllHostSystems");
 
         try {
+            return sessionPool.execute(new SessionPool.SessionCall<List<String>>() {
+                @Override
+                public List<String> call(ServiceInstance si) throws Exception {
+                    List<String> hostSystems = new ArrayList<String>();
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+                    ManagedEntity[] hostsystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
+                    for (ManagedEntity hostsystem : hostsystems) {
+                        HostSystem host = (HostSystem) hostsystem;
 
-            Task task = null;
+                        hostSystems.add(host.getName());
+                    }
 
-            switch (opEnum) {
-                case POWER_OFF:
-                    task = vm.powerOffVM_Task();
-                    break;
-                case POWER_ON:
-                    task = vm.powerOnVM_Task(null);
-                    break;
-                case REBOOT:
-                    vm.rebootGuest();
-                    break;
-                case RESET:
-                    task = vm.resetVM_Task();
-                    break;
-                case SHUTDOWN:
-                    vm.shutdownGuest();
-                    break;
-                case STANDBY:
-                    vm.standbyGuest();
-                    break;
-                case SUSPEND:
-                    task = vm.suspendVM_Task();
-                    break;
-            }
+                    return hostSystems;
+                }
+            });
+        } catch (PlatformConfigFault f) {
+            throw timer.failed(new VMWareException(f));
+        } catch (RemoteException exc) {
+            throw timer.failed(new VMWareException(exc));
+        } catch (Exception exc) {
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
+        }
+    }
 
-            String result = Task.SUCCESS;
+    public String getResourcePools(final String dcName) throws VMWareException {
 
-            if (task != null)
-                task.waitForTask();
+        Metrics.Timer timer = Metrics.getInstance().start("helper.getResourcePools");
 
-            retVal = result.equals(Task.SUCCESS);
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<String>() {
+                @Override
+                public String call(ServiceInstance si) throws Exception {
+                    Datacenter dc = (Datacenter) inventoryIndex.find(si, "Datacenter", dcName);
 
-            return retVal;
+                    StringBuilder buffer = new StringBuilder();
 
-        } catch (ToolsUnavailable exc) {
-            if (opEnum == OpEnum.SHUTDOWN) {
-                return this.vmOperation(vmName, OpEnum.POWER_OFF);
-            }
+                    ManagedEntity[] entity = new InventoryNavigator(dc).searchManagedEntities("ResourcePool");
 
-            return Boolean.FALSE;
+                    for (ManagedEntity me : entity) {
+                        if (me instanceof ResourcePool) {
+                            ResourcePool pool = (ResourcePool) me;
+                            buffer.append(pool.getName()).append(", ");
+                        }
+                    }
+
+                    return buffer.toString();
+                }
+            });
         } catch (PlatformConfigFault f) {
-            logger.log(Level.FINE, f.toString(), f);
-            throw new VMWareException(f);
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            logger.log(Level.FINE, exc.toString(), exc);
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
         } catch (Exception exc) {
-            logger.log(Level.FINE, exc.toString(), exc);
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
     }
 
-    public Boolean moveVmToHostSystem(final String vmName, final String hostName) throws VMWareException {
-
-        ServiceInstance si = null;
-        boolean retVal;
-
-        try {
+    /**
+     * Creates a VM on the ZX-VMWare-Cluster using vijava (http://vijava.sourceforge.net/)
+     *
+     * @param dcName Name of the datacenter
+     * @param vmName Name of the VMWare-image
+     * @param memorySizeMB Size of memory in MB
+     * @param cpuCount Number of CPUs
+     * @param networkCount Number of network-interfaces
+     * @param guestOsId ID of the guest-OS (e.g. debian6_64Guest)
+     * @param poolName Name of the ResourcePool
+     * @param hostName Name of the HostSystem
+     * @param diskSizeKB Size of the disk in KB
+     * @param diskMode Mode the the disk (e.g. persistent)
+     * @param dataStoreName Name of the datastore
+     * @param netName Name of the VLAN (e.g. VLAN551_DEVSubLinux)
+     * @param nicTemplate Template of the network adapter (e.g. Network Adapter 1)
+     * @param comment Comment for VM
+     * @return A boolean value that indicates if creation succeeded or failed
+     * @throws VMWareException wraps exceptions from vijava
+     */
+    public Boolean createVM(final String dcName, final String vmName, final Long memorySizeMB, final Integer cpuCount, final Integer networkCount,
+                            final String guestOsId, final String poolName, final String hostName, final Long diskSizeKB, final String diskMode,
+                            final String dataStoreName, final String netName, final String nicTemplate, final String comment, final String virtualNetwork)
+            throws VMWareException {
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+        Metrics.Timer timer = Metrics.getInstance().start("helper.createVM");
 
-            HostSystem hostSystem = null;
-            ManagedEntity[] hostSystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
-            for (ManagedEntity hostSystem1 : hostSystems) {
-                HostSystem host = (HostSystem) hostSystem1;
+        logger.log(Level.FINE, "ResourcePool: " + poolName);
+        logger.log(Level.FINE, "NetName: " + netName);
 
-                if (host.getName().equalsIgnoreCase(hostName)) {
-                    logger.log(Level.FINE, "Found HostSystem: " + hostName);
-                    hostSystem = host;
-                } else {
-                    logger.log(Level.FINE, "HostSystem: " + hostName + " not found! Using default HostSystem.");
+        try {
+            final CreateContext context = sessionPool.execute(new SessionPool.SessionCall<CreateContext>() {
+                @Override
+                public CreateContext call(ServiceInstance si) throws Exception {
+                    return resolveCreateContext(si, dcName, netName, virtualNetwork, false);
                 }
-            }
-
-            VirtualMachineRelocateSpec relSpec = new VirtualMachineRelocateSpec();
-            relSpec.setHost(hostSystem.getMOR());
-
-            Task task = vm.relocateVM_Task(relSpec);
+            });
 
-            String result = task.waitForTask();
+            final VirtualMachineConfigSpec vmSpec = createVmConfigSpec(vmName, comment, memorySizeMB, cpuCount, guestOsId, diskSizeKB, diskMode,
+                    dataStoreName, networkCount, netName, nicTemplate, context.switchUuid, context.portgroupKey);
 
-            retVal = result.equals(Task.SUCCESS);
+            AdmissionController.Permit permit = admission.admit(AdmissionController.getCaller(), hostName, dataStoreName);
 
-            return retVal;
+            try {
+                return submitAndWait(new SessionPool.SessionCall<Task>() {
+                    @Override
+                    public Task call(ServiceInstance si) throws Exception {
+                        // call the createVM_Task method on the vm folder
+                        return context.getVmFolder(si).createVM_Task(vmSpec, context.getPool(si, poolName), context.getHost(si, hostName));
+                    }
+                });
+            } finally {
+                inventoryIndex.invalidate("VirtualMachine", vmName);
+                permit.release();
+            }
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
         } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
     }
 
-    public String getHostSystemForVM(final String vmName) throws VMWareException {
+    /**
+     * Creates a batch of VMs. The referenced inventory-objects are resolved with one PropertyCollector-retrieval, the createVM-tasks are
+     * submitted concurrently and tracked by the task-tracker. The MAC-addresses are read from the created VMs with one call. The creates
+     * pass the admission-control like every other operation, which limits them per HostSystem and per datastore; as the batch was accepted
+     * as a whole they wait for their admission without timeout. A session is borrowed only to resolve the inventory-objects, to submit
+     * each task and to read the MAC-addresses, not while the creates wait for their admission or their tasks.
+     * VMs with a template are cloned as linked clones of its snapshot, their disk-size and guest-OS are taken from the template.
+     *
+     * @param dcName Name of the datacenter
+     * @param specs The VMs to create, memory- and disk-size in GB
+     * @param guestOsId ID of the guest-OS (e.g. debian6_64Guest)
+     * @param diskMode Mode the the disk (e.g. persistent)
+     * @param dataStoreName Name of the datastore of VMs without own datastore
+     * @param netName Name of the VLAN (e.g. VLAN551_DEVSubLinux)
+     * @param nicTemplate Template of the network adapter (e.g. Network Adapter 1)
+     * @param virtualNetwork Name of the DVS
+     * @param template Name of the template of VMs without own template, null to create them from scratch
+     * @param templateSnapshot Name of the snapshot of the templates, null for their current snapshot
+     * @return The result per VM in the order of the specs
+     * @throws VMWareException If the shared inventory-objects or a template can not be resolved
+     */
+    public List<VmResult> createVMs(final String dcName, final List<VmSpec> specs, final String guestOsId, final String diskMode,
+                                    final String dataStoreName, final String netName, final String nicTemplate, final String virtualNetwork,
+                                    final String template, final String templateSnapshot) throws VMWareException {
+
+        Metrics.Timer timer = Metrics.getInstance().start("helper.createVMs");
 
-        ServiceInstance si = null;
+        final List<VmResult> results = new ArrayList<VmResult>();
+        final List<PreparedCreate> prepared = new ArrayList<PreparedCreate>();
+        List<PendingCreate> pending = new ArrayList<PendingCreate>();
 
         try {
 
-            si = this.getServerInstance();
-            boolean found = false;
-            HostSystem hostSystem = null;
-            ManagedEntity[] hostsystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
-            for (ManagedEntity hostsystem : hostsystems) {
-                HostSystem host = (HostSystem) hostsystem;
+            admission.checkCapacity();
+
+            // existing names are taken from the mirror, without it they are retrieved together with the other inventory-objects
+            final InventoryMirror mirror = getSyncedMirror();
+
+            final CreateContext context = sessionPool.execute(new SessionPool.SessionCall<CreateContext>() {
+                @Override
+                public CreateContext call(ServiceInstance si) throws Exception {
+                    // the specs are prepared again if the call is retried with a new session
+                    results.clear();
+                    prepared.clear();
+
+                    CreateContext context = resolveCreateContext(si, dcName, netName, virtualNetwork, mirror == null);
+
+                    // the templates are resolved before the first VM is created, so a missing template fails the whole batch
+                    Map<String, CloneSource> sources = new HashMap<String, CloneSource>();
+                    Map<String, ManagedObjectReference> datastores = new HashMap<String, ManagedObjectReference>();
+
+                    for (VmSpec spec : specs) {
+                        String templateName = spec.getTemplate() == null ? template : spec.getTemplate();
+
+                        if (templateName != null && !sources.containsKey(templateName))
+                            sources.put(templateName, resolveCloneSource(si, templateName, templateSnapshot));
+                    }
+
+                    Set<String> names = new HashSet<String>(context.vmNames);
 
-                VirtualMachine[] vms = host.getVms();
+                    for (VmSpec spec : specs) {
 
-                for (VirtualMachine vm : vms) {
-                    if (vm.getName().equals(vmName)) {
-                        hostSystem = host;
-                        found = true;
-                        break;
+                        VmResult result = new VmResult(spec.getName());
+                        results.add(result);
+
+                        if (!names.add(spec.getName()) || (mirror != null && mirror.containsVm(spec.getName()))) {
+                            result.failed("VM \"" + spec.getName() + "\" exists already!");
+                            continue;
+                        }
+
+                        String dataStore = spec.getDataStoreName() == null ? dataStoreName : spec.getDataStoreName();
+                        CloneSource source = sources.get(spec.getTemplate() == null ? template : spec.getTemplate());
+
+                        PreparedCreate create = new PreparedCreate(result, spec.getPoolName(), spec.getHostName(), dataStore);
+
+                        if (source == null) {
+                            create.vmSpec = createVmConfigSpec(spec.getName(), spec.getComment(), spec.getMemorySize() * 1024L,
+                                    spec.getCpuCount(), guestOsId, spec.getDiskSize() * 1024L * 1024L, diskMode, dataStore,
+                                    spec.getNetworkCount(), netName, nicTemplate, context.switchUuid, context.portgroupKey);
+                        } else {
+                            ResourcePool pool = context.getPool(si, spec.getPoolName());
+                            HostSystem host = context.getHost(si, spec.getHostName());
+
+                            create.template = source.vm.getMOR();
+                            create.cloneSpec = createCloneSpec(source, spec.getComment(), spec.getMemorySize() * 1024L, spec.getCpuCount(),
+                                    spec.getNetworkCount(), netName, nicTemplate, context.switchUuid, context.portgroupKey,
+                                    pool == null ? null : pool.getMOR(), host == null ? null : host.getMOR(),
+                                    getDatastore(si, datastores, dataStore));
+                        }
+
+                        prepared.add(create);
                     }
+
+                    return context;
+                }
+            });
+
+            final TaskStatus status = AsyncTaskRegistry.current();
+            final String caller = AdmissionController.getCaller();
+            final AtomicInteger finished = new AtomicInteger(results.size() - prepared.size());
+            final int total = specs.size();
+
+            for (final PreparedCreate create : prepared) {
+
+                // the batch was accepted as a whole, so its creates wait for their admission without the timeout of single operations.
+                // VMs without HostSystem are placed by DRS, they are only limited per datastore.
+                final AdmissionController.Permit permit;
+                try {
+                    permit = admission.admit(caller, create.hostName, create.dataStore, total > 1 ? 0 : Constants.ADMISSION_TIMEOUT);
+                } catch (AdmissionRejectedException exc) {
+                    create.result.failed(exc.getMessage());
+                    finished.incrementAndGet();
+                    continue;
                 }
 
-                if (found)
-                    break;
+                // the session is borrowed only to submit the task, a lost session fails this create and the next one gets a new session
+                Task task;
+                try {
+                    task = sessionPool.executeOnce(new SessionPool.SessionCall<Task>() {
+                        @Override
+                        public Task call(ServiceInstance si) throws Exception {
+                            Folder vmFolder = context.getVmFolder(si);
+
+                            if (create.cloneSpec == null)
+                                return vmFolder.createVM_Task(create.vmSpec, context.getPool(si, create.poolName),
+                                        context.getHost(si, create.hostName));
+
+                            return new VirtualMachine(si.getServerConnection(), create.template).cloneVM_Task(vmFolder,
+                                    create.result.getName(), create.cloneSpec);
+                        }
+                    });
+                } catch (Exception exc) {
+                    permit.release();
+                    create.result.failed(getMessage(exc));
+                    finished.incrementAndGet();
+                    continue;
+                }
+
+                Runnable done = new Runnable() {
+                    @Override
+                    public void run() {
+                        permit.release();
+
+                        if (status != null)
+                            status.setProgress(finished.incrementAndGet() * 100 / total);
+                    }
+                };
+
+                TaskTracker.TaskFuture future = taskTracker.track(task, null);
+
+                if (future != null) {
+                    future.addListener(done);
+                } else {
+                    try {
+                        waitForTask(task, null, null);
+                    } catch (VMWareException exc) {
+                        create.result.failed(exc.getMessage());
+                        continue;
+                    } finally {
+                        done.run();
+                    }
+                }
+
+                pending.add(new PendingCreate(create.result, task, future));
             }
 
-            return hostSystem.getName();
+            collectCreated(pending);
+        } catch (AdmissionRejectedException exc) {
+            throw timer.failed(exc);
         } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+            throw timer.failed(new VMWareException(f));
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } catch (VMWareException exc) {
+            throw timer.failed(exc);
         } catch (Exception exc) {
-            throw new VMWareException(exc);
+            throw timer.failed(new VMWareException(exc));
+        } finally {
+            timer.stop();
         }
+
+        return results;
     }
 
-    public VirtualMachinePowerState getPowerState(final String vmName) throws VMWareException {
-        ServiceInstance si = null;
+    /**
+     * Resolves the inventory-objects referenced by creates with one paged PropertyCollector-retrieval on a ContainerView of the datacenter:
+     * the vm-folder, all ResourcePools and HostSystems and optionally the names of all VMs. The DVS and its portgroup are taken from the
+     * portgroup-cache.
+     *
+     * @param si The server-instance
+     * @param dcName Name of the datacenter
+     * @param netName Name of the portgroup
+     * @param virtualNetwork Name of the DVS
+     * @param vmNames If true the names of the VMs are retrieved as well
+     * @return The resolved objects
+     * @throws Exception If the datacenter, the DVS or the portgroup do not exist or the retrieval fails
+     */
+    private CreateContext resolveCreateContext(final ServiceInstance si, final String dcName, final String netName, final String virtualNetwork,
+                                               final boolean vmNames) throws Exception {
+
+        Datacenter dc = (Datacenter) inventoryIndex.find(si, "Datacenter", dcName);
 
-        try {
+        if (dc == null)
+            throw new VMWareException("Could not find datacenter " + dcName);
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+        PortgroupCache.Portgroup portgroup = portgroupCache.get(si, netName, virtualNetwork);
 
-            if (vm != null) {
-                return vm.getRuntime().getPowerState();
-            }
+        if (portgroup == null)
+            throw new VMWareException("Could not find network " + netName + " on DVS " + virtualNetwork);
 
-            return null;
+        final CreateContext context = new CreateContext();
+        context.switchUuid = portgroup.getSwitchUuid();
+        context.portgroupKey = portgroup.getKey();
+        ContainerView view = null;
 
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException("Problems with " + vmName, f);
-        } catch (RemoteException exc) {
-            throw new VMWareException("Problems with " + vmName, exc);
-        } catch (MalformedURLException exc) {
-            throw new VMWareException("Problems with " + vmName, exc);
+        try {
+            List<String> types = new ArrayList<String>();
+            types.add("ResourcePool");
+            types.add("HostSystem");
+
+            if (vmNames)
+                types.add("VirtualMachine");
+
+            view = PropertyCollectorHelper.createContainerView(si, dc, types.toArray(new String[types.size()]));
+
+            PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                    PropertyCollectorHelper.createPropertySpec("ResourcePool", "name"),
+                    PropertyCollectorHelper.createPropertySpec("HostSystem", "name"),
+                    PropertyCollectorHelper.createPropertySpec("VirtualMachine", "name"),
+                    PropertyCollectorHelper.createPropertySpec("Datacenter", "vmFolder"));
+
+            // the vm-folder of the datacenter is read with the same call
+            ObjectSpec dcSpec = new ObjectSpec();
+            dcSpec.setObj(dc.getMOR());
+            dcSpec.setSkip(Boolean.FALSE);
+            filterSpec.setObjectSet(new ObjectSpec[]{filterSpec.getObjectSet()[0], dcSpec});
+
+            PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                    new PropertyCollectorHelper.ContentHandler() {
+                        @Override
+                        public void handle(ObjectContent content) {
+                            ManagedObjectReference mor = content.getObj();
+                            Map<String, Object> properties = PropertyCollectorHelper.toMap(content.getPropSet());
+                            String name = (String) properties.get("name");
+
+                            if ("Datacenter".equals(mor.getType())) {
+                                context.vmFolder = (ManagedObjectReference) properties.get("vmFolder");
+                            } else if ("ResourcePool".equals(mor.getType())) {
+                                if (name != null && !context.pools.containsKey(name))
+                                    context.pools.put(name, mor);
+                            } else if ("HostSystem".equals(mor.getType())) {
+                                if (name != null)
+                                    context.hosts.put(name.toLowerCase(), mor);
+                            } else if ("VirtualMachine".equals(mor.getType())) {
+                                if (name != null)
+                                    context.vmNames.add(name);
+                            }
+                        }
+                    });
+        } finally {
+            destroyView(view);
         }
+
+        return context;
     }
 
     /**
-     * Deletes a VM
+     * Resolves a template and the snapshot its linked clones are based on, the snapshot-tree and the devices of the template are read
+     * with one PropertyCollector-call
      *
-     * @param vmName Name of VM
-     * @return A boolean value that indicates if deletion succeeded or failed
-     * @throws VMWareException wraps exceptions from vijava
+     * @param si The server-instance
+     * @param template Name of the template
+     * @param snapshotName Name of the snapshot, null for the current snapshot
+     * @return The template, its snapshot and its devices
+     * @throws Exception If the template or the snapshot do not exist or the retrieval fails
      */
-    public Boolean deleteVM(final String vmName) throws VMWareException {
+    private CloneSource resolveCloneSource(final ServiceInstance si, final String template, final String snapshotName) throws Exception {
 
-        boolean retVal = false;
+        VirtualMachine vm = (VirtualMachine) inventoryIndex.find(si, "VirtualMachine", template);
 
-        ServiceInstance si = null;
+        if (vm == null)
+            throw new VMWareException("Could not find template " + template);
 
-        try {
+        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(Collections.singletonList(vm.getMOR()),
+                PropertyCollectorHelper.createPropertySpec("VirtualMachine", "snapshot", "config.hardware.device"));
+
+        final Map<String, Object> properties = new HashMap<String, Object>();
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
-            VirtualMachine vm = (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", vmName);
+        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                new PropertyCollectorHelper.ContentHandler() {
+                    @Override
+                    public void handle(ObjectContent content) {
+                        properties.putAll(PropertyCollectorHelper.toMap(content.getPropSet()));
+                    }
+                });
 
-            if (vm == null)
-                throw new VMWareException("VM " + vmName + " is not found!");
+        VirtualMachineSnapshotInfo snapshots = (VirtualMachineSnapshotInfo) properties.get("snapshot");
+        ManagedObjectReference snapshot = null;
 
-            logger.log(Level.FINE, "VM-State: " + vm.getRuntime().getPowerState().name());
-            if (vm.getRuntime().getPowerState() == VirtualMachinePowerState.poweredOn)
-                this.vmOperation(vmName, OpEnum.SHUTDOWN);
+        if (snapshots != null)
+            snapshot = snapshotName == null ? snapshots.getCurrentSnapshot() : findSnapshot(snapshots.getRootSnapshotList(), snapshotName);
 
-            Task task = vm.destroy_Task();
+        if (snapshot == null)
+            throw new VMWareException("Template " + template + " has no snapshot " + (snapshotName == null ? "" : snapshotName + " ")
+                    + "to link clones to");
 
-            String result = task.waitForTask();
+        VirtualDevice[] devices = (VirtualDevice[]) properties.get("config.hardware.device");
 
-            retVal = result.equals(Task.SUCCESS);
+        return new CloneSource(vm, snapshot, devices == null ? new VirtualDevice[0] : devices);
+    }
 
-            return retVal;
+    private static ManagedObjectReference findSnapshot(final VirtualMachineSnapshotTree[] snapshots, final String snapshotName) {
 
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (RemoteException exc) {
-            throw new VMWareException(exc);
-        } catch (Exception exc) {
-            throw new VMWareException(exc);
+        if (snapshots == null)
+            return null;
+
+        for (VirtualMachineSnapshotTree snapshot : snapshots) {
+            if (snapshotName.equals(snapshot.getName()))
+                return snapshot.getSnapshot();
+
+            ManagedObjectReference child = findSnapshot(snapshot.getChildSnapshotList(), snapshotName);
+
+            if (child != null)
+                return child;
         }
 
+        return null;
     }
 
-    public List<String> getAllHostSystems() throws VMWareException {
+    /**
+     * Returns the datastore of linked clones, the datastores of a batch are looked up once
+     *
+     * @return The datastore or null to keep the datastore of the template
+     */
+    private ManagedObjectReference getDatastore(final ServiceInstance si, final Map<String, ManagedObjectReference> datastores,
+                                                final String dataStoreName) throws Exception {
+
+        if (dataStoreName == null || dataStoreName.trim().isEmpty())
+            return null;
 
-        ServiceInstance si = null;
+        if (!datastores.containsKey(dataStoreName)) {
+            ManagedEntity datastore = inventoryIndex.find(si, "Datastore", dataStoreName);
 
-        List<String> hostSystems = new ArrayList<String>();
+            if (datastore == null)
+                throw new VMWareException("Could not find datastore " + dataStoreName);
 
-        try {
+            datastores.put(dataStoreName, datastore.getMOR());
+        }
 
-            si = this.getServerInstance();
-            ManagedEntity[] hostsystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
-            for (ManagedEntity hostsystem : hostsystems) {
-                HostSystem host = (HostSystem) hostsystem;
+        return datastores.get(dataStoreName);
+    }
+
+    /**
+     * Waits for the pending creates without a session and reads the MAC-addresses of the created VMs with one call
+     */
+    private void collectCreated(final List<PendingCreate> pending) throws Exception {
+
+        final Map<String, VmResult> created = new HashMap<String, VmResult>();
+        final List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>();
+
+        for (PendingCreate create : pending) {
+
+            String state;
+            LocalizedMethodFault error;
+            Object vm;
 
-                hostSystems.add(host.getName());
+            try {
+                state = waitForTask(create.task, create.future, null);
+            } catch (VMWareException exc) {
+                inventoryIndex.invalidate("VirtualMachine", create.result.getName());
+                create.result.failed(exc.getMessage());
+                continue;
             }
 
-            return hostSystems;
+            // result and error of a task that was not tracked until the end are read from the task
+            if (create.future != null && create.future.isCompleted()) {
+                error = create.future.getError();
+                vm = create.future.getResult();
+            } else {
+                TaskInfo info = getTaskInfo(create.task.getMOR());
+                error = info.getError();
+                vm = info.getResult();
+            }
 
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (RemoteException exc) {
-            throw new VMWareException(exc);
-        } catch (Exception exc) {
-            throw new VMWareException(exc);
+            inventoryIndex.invalidate("VirtualMachine", create.result.getName());
+
+            if (Task.SUCCESS.equals(state) && vm instanceof ManagedObjectReference) {
+                ManagedObjectReference mor = (ManagedObjectReference) vm;
+                created.put(mor.getVal(), create.result);
+                vms.add(mor);
+            } else {
+                create.result.failed(error == null ? "Task " + create.task.getMOR().getVal() + " failed" : getMessage(error));
+            }
         }
-    }
 
-    public String getResourcePools(final String dcName) throws VMWareException {
-        ServiceInstance si = null;
+        if (vms.isEmpty())
+            return;
 
-        StringBuilder buffer = new StringBuilder();
+        Map<String, List<String>> macAddresses = sessionPool.execute(new SessionPool.SessionCall<Map<String, List<String>>>() {
+            @Override
+            public Map<String, List<String>> call(ServiceInstance si) throws Exception {
+                for (ManagedObjectReference mor : vms)
+                    inventoryIndex.put(si, null, "VirtualMachine", created.get(mor.getVal()).getName(), mor);
 
-        try {
+                return getMacAddresses(si, vms);
+            }
+        });
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
+        for (ManagedObjectReference mor : vms) {
+            List<String> addresses = macAddresses.get(mor.getVal());
+            created.get(mor.getVal()).succeeded(addresses == null ? new ArrayList<String>() : addresses);
+        }
+    }
+
+    /**
+     * Reads the MAC-addresses of VMs with one PropertyCollector-call
+     *
+     * @param si The server-instance
+     * @param vms The VMs
+     * @return Map of VM-MOR to the MAC-addresses of its NICs
+     * @throws Exception If the properties can not be read
+     */
+    private static Map<String, List<String>> getMacAddresses(final ServiceInstance si, final List<ManagedObjectReference> vms) throws Exception {
 
-            Datacenter dc = (Datacenter) new InventoryNavigator(rootFolder).searchManagedEntity("Datacenter", dcName);
+        Map<String, List<String>> macAddresses = new HashMap<String, List<String>>();
 
-            ManagedEntity[] entity = new InventoryNavigator(dc).searchManagedEntities("ResourcePool");
+        for (Map.Entry<String, VirtualDevice[]> devices : getDevices(si, vms).entrySet()) {
+            List<String> addresses = new ArrayList<String>();
 
-            for (ManagedEntity me : entity) {
-                if (me instanceof ResourcePool) {
-                    ResourcePool pool = (ResourcePool) me;
-                    buffer.append(pool.getName()).append(", ");
-                }
+            for (VirtualDevice device : devices.getValue()) {
+                if (device instanceof VirtualEthernetCard)
+                    addresses.add(((VirtualEthernetCard) device).getMacAddress());
             }
 
-            return buffer.toString();
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
-        } catch (RemoteException exc) {
-            throw new VMWareException(exc);
-        } catch (Exception exc) {
-            throw new VMWareException(exc);
+            macAddresses.put(devices.getKey(), addresses);
         }
+
+        return macAddresses;
     }
 
     /**
-     * Creates a VM on the ZX-VMWare-Cluster using vijava (http://vijava.sourceforge.net/)
+     * Reads only config.hardware.device of VMs with one PropertyCollector-call instead of the whole VirtualMachineConfigInfo
      *
-     * @param dcName Name of the datacenter
-     * @param vmName Name of the VMWare-image
-     * @param memorySizeMB Size of memory in MB
-     * @param cpuCount Number of CPUs
-     * @param networkCount Number of network-interfaces
-     * @param guestOsId ID of the guest-OS (e.g. debian6_64Guest)
-     * @param poolName Name of the ResourcePool
-     * @param hostName Name of the HostSystem
-     * @param diskSizeKB Size of the disk in KB
-     * @param diskMode Mode the the disk (e.g. persistent)
-     * @param dataStoreName Name of the datastore
-     * @param netName Name of the VLAN (e.g. VLAN551_DEVSubLinux)
-     * @param nicTemplate Template of the network adapter (e.g. Network Adapter 1)
-     * @param comment Comment for VM
-     * @return A boolean value that indicates if creation succeeded or failed
-     * @throws VMWareException wraps exceptions from vijava
+     * @param si The server-instance
+     * @param vms The VMs
+     * @return Map of VM-MOR to its devices
+     * @throws Exception If the properties can not be read
      */
-    public Boolean createVM(final String dcName, final String vmName, final Long memorySizeMB, final Integer cpuCount, final Integer networkCount,
-                            final String guestOsId, final String poolName, final String hostName, final Long diskSizeKB, final String diskMode,
-                            final String dataStoreName, final String netName, final String nicTemplate, final String comment, final String virtualNetwork)
-            throws VMWareException {
+    private static Map<String, VirtualDevice[]> getDevices(final ServiceInstance si, final List<ManagedObjectReference> vms) throws Exception {
 
-        logger.log(Level.FINE, "ResourcePool: " + poolName);
-        logger.log(Level.FINE, "NetName: " + netName);
+        final Map<String, VirtualDevice[]> devices = new HashMap<String, VirtualDevice[]>();
 
-        boolean retVal = false;
+        if (vms.isEmpty())
+            return devices;
 
-        ServiceInstance si = null;
+        PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(vms,
+                PropertyCollectorHelper.createPropertySpec("VirtualMachine", "config.hardware.device"));
 
-        try {
+        PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                new PropertyCollectorHelper.ContentHandler() {
+                    @Override
+                    public void handle(ObjectContent content) {
+                        Object value = PropertyCollectorHelper.toMap(content.getPropSet()).get("config.hardware.device");
+                        devices.put(content.getObj().getVal(), value == null ? new VirtualDevice[0] : (VirtualDevice[]) value);
+                    }
+                });
+
+        return devices;
+    }
 
-            si = this.getServerInstance();
-            Folder rootFolder = si.getRootFolder();
+    /**
+     * Reads the names of all VMs with paged RetrievePropertiesEx-calls
+     *
+     * @return Map of VM-name to VM-MOR
+     */
+    private static Map<String, ManagedObjectReference> getVms(final ServiceInstance si) throws Exception {
 
-            Datacenter dc = (Datacenter) new InventoryNavigator(rootFolder).searchManagedEntity("Datacenter", dcName);
+        final Map<String, ManagedObjectReference> vms = new HashMap<String, ManagedObjectReference>();
+        ContainerView view = null;
 
-            Network network = (Network) new InventoryNavigator(rootFolder).searchManagedEntity("Network", netName);
+        try {
+            view = PropertyCollectorHelper.createContainerView(si, "VirtualMachine");
 
-            DistributedVirtualSwitch dvs =
-                    (DistributedVirtualSwitch) new InventoryNavigator(dc).searchManagedEntity("DistributedVirtualSwitch", virtualNetwork);
+            PropertyFilterSpec filterSpec = PropertyCollectorHelper.createFilterSpec(view,
+                    PropertyCollectorHelper.createPropertySpec("VirtualMachine", "name"));
 
-            if (network == null)
-                throw new VMWareException("Could not find network " + netName);
+            PropertyCollectorHelper.retrieve(si.getPropertyCollector(), filterSpec, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS,
+                    new PropertyCollectorHelper.ContentHandler() {
+                        @Override
+                        public void handle(ObjectContent content) {
+                            Object name = PropertyCollectorHelper.toMap(content.getPropSet()).get("name");
 
-            ResourcePool rp = null;
+                            if (name != null)
+                                vms.put((String) name, content.getObj());
+                        }
+                    });
+        } finally {
+            destroyView(view);
+        }
 
-            ManagedEntity[] entity = new InventoryNavigator(dc).searchManagedEntities("ResourcePool");
+        return vms;
+    }
 
-            for (ManagedEntity me : entity) {
-                if (me instanceof ResourcePool) {
-                    ResourcePool pool = (ResourcePool) me;
-                    if (pool.getName().equals(poolName)) {
-                        rp = pool;
-                    }
-                }
-            }
+    private static String getMessage(final Throwable exc) {
+        return exc.getMessage() == null ? exc.toString() : exc.getMessage();
+    }
 
-            Folder vmFolder = dc.getVmFolder();
+    private static String getMessage(final LocalizedMethodFault fault) {
+        return fault.getLocalizedMessage() == null ? fault.getFault().getClass().getSimpleName() : fault.getLocalizedMessage();
+    }
 
-            // create vm config spec
-            VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
-            vmSpec.setName(vmName);
-            vmSpec.setAnnotation(comment);
-            vmSpec.setMemoryMB(memorySizeMB);
-            vmSpec.setNumCPUs(cpuCount);
-            vmSpec.setGuestId(guestOsId);
+    /**
+     * Waits until a vCenter-task is finished, the progress is reported to the asynchronous task executed by the current thread.
+     * The task is tracked by the task-tracker, if the tracker is not available the task-info is polled.
+     *
+     * @param task The vCenter-task
+     * @return The final state of the task (Task.SUCCESS or error)
+     * @throws RemoteException If the task-info can not be read
+     * @throws InterruptedException If the thread is interrupted
+     * @throws VMWareException If the task is not finished within the task-timeout
+     */
+    private String waitForTask(final Task task) throws RemoteException, InterruptedException, VMWareException {
 
-            // create virtual devices
-            int cKey = 1000;
-            VirtualDeviceConfigSpec scsiSpec = createScsiSpec(cKey);
-            VirtualDeviceConfigSpec diskSpec = createDiskSpec(dataStoreName, cKey, diskSizeKB, diskMode);
+        TaskStatus status = AsyncTaskRegistry.current();
 
-            VirtualDeviceConfigSpec[] configSpec = new VirtualDeviceConfigSpec[2 + networkCount];
+        if (status != null)
+            status.setVcenterTask(task.getMOR().getVal());
 
-            configSpec[0] = scsiSpec;
-            configSpec[1] = diskSpec;
+        return waitForTask(task, taskTracker.track(task, status), status);
+    }
 
-            for (int i = 0; i < networkCount; i++) {
-                String nicName = String.format(nicTemplate, i + 1);
-                VirtualDeviceConfigSpec nicSpec = createNicSpec(netName, nicName, network, dvs, VirtualDeviceConfigSpecOperation.add);
-                configSpec[2 + i] = nicSpec;
+    /**
+     * Waits until a vCenter-task is finished. If the tracking fails (e.g. the tracker lost its session) the task-info is polled until
+     * the task-timeout is reached.
+     *
+     * @param task The vCenter-task
+     * @param future Future of the tracked task, null if it is not tracked
+     * @param status Status the progress of a polled task is reported to, may be null
+     * @return The final state of the task (Task.SUCCESS or error)
+     * @throws RemoteException If the task-info can not be read
+     * @throws InterruptedException If the thread is interrupted
+     * @throws VMWareException If the task is not finished within the task-timeout
+     */
+    private String waitForTask(final Task task, final TaskTracker.TaskFuture future, final TaskStatus status)
+            throws RemoteException, InterruptedException, VMWareException {
+
+        long timeout = taskTimeout;
+        long deadline = System.currentTimeMillis() + timeout;
+
+        if (future != null) {
+            try {
+                return future.get(timeout, TimeUnit.MILLISECONDS).name();
+            } catch (ExecutionException exc) {
+                logger.log(Level.FINE, "Tracking of " + task.getMOR().getVal() + " failed, polling", exc.getCause());
+            } catch (TimeoutException exc) {
+                throw new VMWareException("Task " + task.getMOR().getVal() + " not finished after " + timeout / 1000 + " seconds");
             }
+        }
 
-            vmSpec.setDeviceChange(configSpec);
+        while (true) {
+            TaskInfo info = getTaskInfo(task.getMOR());
 
-            // create vm file info for the vmx file
-            VirtualMachineFileInfo vmfi = new VirtualMachineFileInfo();
-            vmfi.setVmPathName("[" + dataStoreName + "]");
-            vmSpec.setFiles(vmfi);
+            if (status != null)
+                status.setProgress(info.getProgress());
 
-            HostSystem hostSystem = null;
-            ManagedEntity[] hostsystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
-            for (ManagedEntity hostsystem : hostsystems) {
-                HostSystem host = (HostSystem) hostsystem;
+            if (info.getState() == TaskInfoState.success || info.getState() == TaskInfoState.error)
+                return info.getState().name();
 
-                if (host.getName().equalsIgnoreCase(hostName)) {
-                    logger.log(Level.FINE, "Found HostSystem: " + hostName);
-                    hostSystem = host;
-                } else {
-                    logger.log(Level.FINE, "HostSystem: " + hostName + " not found! Using default HostSystem.");
-                }
-            }
+            if (System.currentTimeMillis() >= deadline)
+                throw new VMWareException("Task " + task.getMOR().getVal() + " not finished after " + timeout / 1000 + " seconds");
 
-            // call the createVM_Task method on the vm folder
-            Task task = vmFolder.createVM_Task(vmSpec, rp, hostSystem);
-            String result = task.waitForTask();
+            Thread.sleep(Constants.TASK_POLL_INTERVAL);
+        }
+    }
 
-            retVal = result.equals(Task.SUCCESS);
-        } catch (PlatformConfigFault f) {
-            throw new VMWareException(f);
+    /**
+     * Reads the info of a task with a borrowed session, so a polled task does not depend on the session that submitted it
+     */
+    private TaskInfo getTaskInfo(final ManagedObjectReference task) throws RemoteException, VMWareException {
+
+        try {
+            return sessionPool.execute(new SessionPool.SessionCall<TaskInfo>() {
+                @Override
+                public TaskInfo call(ServiceInstance si) throws Exception {
+                    return new Task(si.getServerConnection(), task).getTaskInfo();
+                }
+            });
         } catch (RemoteException exc) {
-            throw new VMWareException(exc);
+            throw exc;
+        } catch (VMWareException exc) {
+            throw exc;
         } catch (Exception exc) {
             throw new VMWareException(exc);
         }
+    }
+
+    private static void destroyView(final View view) {
+
+        try {
+            if (view != null)
+                view.destroyView();
+        } catch (Exception exc) {
+            logger.log(Level.FINE, "Destroying the view failed", exc);
+        }
+    }
+
+    /**
+     * Finds a HostSystem by name, the name is compared case-insensitive
+     *
+     * @param si The server-instance
+     * @param hostName Name of the HostSystem
+     * @return The HostSystem or null if not found
+     * @throws RemoteException If the search fails
+     */
+    private HostSystem findHostSystem(final ServiceInstance si, final String hostName) throws RemoteException {
+
+        if (hostName == null)
+            return null;
+
+        HostSystem hostSystem = (HostSystem) inventoryIndex.find(si, "HostSystem", hostName);
+
+        if (hostSystem == null) {
+            ManagedEntity[] hostsystems = new InventoryNavigator(si.getRootFolder()).searchManagedEntities("HostSystem");
+            for (ManagedEntity hostsystem : hostsystems) {
+                if (hostsystem.getName().equalsIgnoreCase(hostName)) {
+                    hostSystem = (HostSystem) hostsystem;
+                    inventoryIndex.put(si, null, "HostSystem", hostName, hostSystem.getMOR());
+                    break;
+                }
+            }
+        }
 
-        return retVal;
+        if (hostSystem != null)
+            logger.log(Level.FINE, "Found HostSystem: " + hostName);
+        else
+            logger.log(Level.FINE, "HostSystem: " + hostName + " not found! Using default HostSystem.");
+
+        return hostSystem;
     }
 
     private static VirtualDeviceConfigSpec createScsiSpec(int cKey) {
@@ -757,26 +2790,141 @@ public class VMWareHelper {
         return diskSpec;
     }
 
-    private static VirtualDeviceConfigSpec createNicSpec(String netName, String nicName, Network network, DistributedVirtualSwitch dvs,
-                                                         VirtualDeviceConfigSpecOperation op) throws Exception {
+    /**
+     * Creates the config-spec of a new VM with a disk and NICs connected to a portgroup of a DVS
+     */
+    private static VirtualMachineConfigSpec createVmConfigSpec(String vmName, String comment, long memorySizeMB, int cpuCount, String guestOsId,
+                                                               long diskSizeKB, String diskMode, String dataStoreName, int networkCount,
+                                                               String netName, String nicTemplate, String switchUuid, String portgroupKey) {
+
+        // create vm config spec
+        VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
+        vmSpec.setName(vmName);
+        vmSpec.setAnnotation(comment);
+        vmSpec.setMemoryMB(memorySizeMB);
+        vmSpec.setNumCPUs(cpuCount);
+        vmSpec.setGuestId(guestOsId);
+
+        // create virtual devices
+        int cKey = 1000;
+        VirtualDeviceConfigSpec scsiSpec = createScsiSpec(cKey);
+        VirtualDeviceConfigSpec diskSpec = createDiskSpec(dataStoreName, cKey, diskSizeKB, diskMode);
+
+        VirtualDeviceConfigSpec[] configSpec = new VirtualDeviceConfigSpec[2 + networkCount];
+
+        configSpec[0] = scsiSpec;
+        configSpec[1] = diskSpec;
+
+        for (int i = 0; i < networkCount; i++) {
+            String nicName = String.format(nicTemplate, i + 1);
+            VirtualDeviceConfigSpec nicSpec = createNicSpec(netName, nicName, switchUuid, portgroupKey, VirtualDeviceConfigSpecOperation.add);
+            configSpec[2 + i] = nicSpec;
+        }
 
-        logger.log(Level.FINE, "Netname: " + netName);
-        logger.log(Level.FINE, "Nicname: " + nicName);
-        logger.log(Level.FINE, "Network: " + network.getName());
-        logger.log(Level.FINE, "DVS: " + dvs.getName());
+        vmSpec.setDeviceChange(configSpec);
 
-        VirtualDeviceConfigSpec nicSpec = new VirtualDeviceConfigSpec();
-        nicSpec.setOperation(op);
+        // create vm file info for the vmx file
+        VirtualMachineFileInfo vmfi = new VirtualMachineFileInfo();
+        vmfi.setVmPathName("[" + dataStoreName + "]");
+        vmSpec.setFiles(vmfi);
 
-        String key = "";
+        return vmSpec;
+    }
+
+    /**
+     * Creates the clone-spec of a linked clone: the disks are child-disks of the snapshot of the template, memory, CPUs and annotation
+     * are overridden. The NICs of the template are connected to the portgroup, missing NICs are added and surplus ones removed.
+     * The devices of the source are shared by the specs of a batch and are not changed.
+     */
+    private static VirtualMachineCloneSpec createCloneSpec(CloneSource source, String comment, long memorySizeMB, int cpuCount, int networkCount,
+                                                           String netName, String nicTemplate, String switchUuid, String portgroupKey,
+                                                           ManagedObjectReference pool, ManagedObjectReference host, ManagedObjectReference datastore)
+            throws VMWareException {
+
+        VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
+        vmSpec.setAnnotation(comment);
+        vmSpec.setMemoryMB(memorySizeMB);
+        vmSpec.setNumCPUs(cpuCount);
+
+        List<VirtualDeviceConfigSpec> deviceChanges = new ArrayList<VirtualDeviceConfigSpec>();
+        int nics = 0;
+
+        for (VirtualDevice device : source.devices) {
+            if (!(device instanceof VirtualEthernetCard))
+                continue;
 
-        for (DistributedVirtualPortgroup dvpg : dvs.getPortgroup()) {
-            if (dvpg.getName().equalsIgnoreCase(netName)) {
-                key = dvpg.getConfig().getKey();
+            VirtualDeviceConfigSpec nicSpec = new VirtualDeviceConfigSpec();
+
+            if (nics++ < networkCount) {
+                nicSpec.setOperation(VirtualDeviceConfigSpecOperation.edit);
+                nicSpec.setDevice(createClonedNic((VirtualEthernetCard) device, netName, switchUuid, portgroupKey));
+            } else {
+                nicSpec.setOperation(VirtualDeviceConfigSpecOperation.remove);
+                nicSpec.setDevice(device);
             }
+
+            deviceChanges.add(nicSpec);
+        }
+
+        for (int i = nics; i < networkCount; i++) {
+            String nicName = String.format(nicTemplate, i + 1);
+            deviceChanges.add(createNicSpec(netName, nicName, switchUuid, portgroupKey, VirtualDeviceConfigSpecOperation.add));
+        }
+
+        vmSpec.setDeviceChange(deviceChanges.toArray(new VirtualDeviceConfigSpec[deviceChanges.size()]));
+
+        VirtualMachineRelocateSpec location = new VirtualMachineRelocateSpec();
+        location.setPool(pool);
+        location.setHost(host);
+        location.setDatastore(datastore);
+        location.setDiskMoveType(VirtualMachineRelocateDiskMoveOptions.createNewChildDiskBacking.name());
+
+        VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
+        cloneSpec.setLocation(location);
+        cloneSpec.setSnapshot(source.snapshot);
+        cloneSpec.setConfig(vmSpec);
+        cloneSpec.setTemplate(false);
+        cloneSpec.setPowerOn(false);
+
+        return cloneSpec;
+    }
+
+    /**
+     * Creates the NIC of a clone that replaces a NIC of the template, it has the type, key and slot of the template-NIC and is connected to
+     * the portgroup
+     */
+    private static VirtualEthernetCard createClonedNic(VirtualEthernetCard template, String netName, String uuid, String key)
+            throws VMWareException {
+
+        VirtualEthernetCard nic;
+
+        try {
+            nic = template.getClass().newInstance();
+        } catch (Exception exc) {
+            throw new VMWareException(exc);
+        }
+
+        nic.setKey(template.getKey());
+        nic.setControllerKey(template.getControllerKey());
+        nic.setUnitNumber(template.getUnitNumber());
+        nic.setConnectable(template.getConnectable());
+        nic.setWakeOnLanEnabled(template.getWakeOnLanEnabled());
+        nic.setBacking(createPortBacking(uuid, key));
+
+        if (template.getDeviceInfo() != null) {
+            Description info = new Description();
+            info.setLabel(template.getDeviceInfo().getLabel());
+            info.setSummary(netName);
+            nic.setDeviceInfo(info);
         }
 
-        String uuid = dvs.getConfig().getUuid();
+        // the clone gets new MAC-addresses
+        nic.setAddressType("generated");
+
+        return nic;
+    }
+
+    private static VirtualEthernetCardDistributedVirtualPortBackingInfo createPortBacking(String uuid, String key) {
 
         DistributedVirtualSwitchPortConnection switchCon = new DistributedVirtualSwitchPortConnection();
         switchCon.setSwitchUuid(uuid);
@@ -784,6 +2932,19 @@ public class VMWareHelper {
 
         VirtualEthernetCardDistributedVirtualPortBackingInfo portBacking = new VirtualEthernetCardDistributedVirtualPortBackingInfo();
         portBacking.setPort(switchCon);
+        return portBacking;
+    }
+
+    private static VirtualDeviceConfigSpec createNicSpec(String netName, String nicName, String uuid, String key,
+                                                         VirtualDeviceConfigSpecOperation op) {
+
+        logger.log(Level.FINE, "Netname: " + netName);
+        logger.log(Level.FINE, "Nicname: " + nicName);
+
+        VirtualDeviceConfigSpec nicSpec = new VirtualDeviceConfigSpec();
+        nicSpec.setOperation(op);
+
+        VirtualEthernetCardDistributedVirtualPortBackingInfo portBacking = createPortBacking(uuid, key);
 
         VirtualEthernetCard nic = new VirtualVmxnet3();
 
@@ -801,4 +2962,153 @@ public class VMWareHelper {
         return nicSpec;
     }
 
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Template of linked clones, resolved by <code>resolveCloneSource</code>
+     */
+    private static class CloneSource {
+
+        private final VirtualMachine vm;
+        private final ManagedObjectReference snapshot;
+        private final VirtualDevice[] devices;
+
+        private CloneSource(final VirtualMachine vm, final ManagedObjectReference snapshot, final VirtualDevice[] devices) {
+            this.vm = vm;
+            this.snapshot = snapshot;
+            this.devices = devices;
+        }
+    }
+
+    /**
+     * Inventory-objects referenced by creates, resolved by <code>resolveCreateContext</code>
+     */
+    private static class CreateContext {
+
+        private ManagedObjectReference vmFolder;
+        private String switchUuid;
+        private String portgroupKey;
+        private final Map<String, ManagedObjectReference> pools = new HashMap<String, ManagedObjectReference>();
+        private final Map<String, ManagedObjectReference> hosts = new HashMap<String, ManagedObjectReference>();
+        private final Set<String> vmNames = new HashSet<String>();
+
+        private Folder getVmFolder(final ServiceInstance si) {
+            return new Folder(si.getServerConnection(), vmFolder);
+        }
+
+        private ResourcePool getPool(final ServiceInstance si, final String poolName) {
+            ManagedObjectReference mor = poolName == null ? null : pools.get(poolName);
+
+            if (mor == null)
+                logger.log(Level.FINE, "ResourcePool: " + poolName + " not found!");
+
+            return mor == null ? null : new ResourcePool(si.getServerConnection(), mor);
+        }
+
+        /**
+         * Returns the HostSystem with a name, the name is compared case-insensitive
+         */
+        private HostSystem getHost(final ServiceInstance si, final String hostName) {
+            ManagedObjectReference mor = hostName == null ? null : hosts.get(hostName.toLowerCase());
+
+            if (mor == null)
+                logger.log(Level.FINE, "HostSystem: " + hostName + " not found! Using default HostSystem.");
+
+            return mor == null ? null : new HostSystem(si.getServerConnection(), mor);
+        }
+    }
+
+    /**
+     * A create of a batch with its spec, prepared before it is admitted
+     */
+    private static class PreparedCreate {
+
+        private final VmResult result;
+        private final String poolName;
+        private final String hostName;
+        private final String dataStore;
+        private VirtualMachineConfigSpec vmSpec;
+        private VirtualMachineCloneSpec cloneSpec;
+        private ManagedObjectReference template;
+
+        private PreparedCreate(final VmResult result, final String poolName, final String hostName, final String dataStore) {
+            this.result = result;
+            this.poolName = poolName;
+            this.hostName = hostName;
+            this.dataStore = dataStore;
+        }
+    }
+
+    /**
+     * A submitted createVM-task of a batch
+     */
+    private static class PendingCreate {
+
+        private final VmResult result;
+        private final Task task;
+        private final TaskTracker.TaskFuture future;
+
+        private PendingCreate(final VmResult result, final Task task, final TaskTracker.TaskFuture future) {
+            this.result = result;
+            this.task = task;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Call of one endpoint-instance, see <code>fanOut</code>
+     */
+    public interface EndpointCall<T> {
+
+        /**
+         * Called once per endpoint
+         *
+         * @param helper The instance of the endpoint
+         * @return The result of the endpoint
+         * @throws Exception If the call fails
+         */
+        T call(VMWareHelper helper) throws Exception;
+    }
+
+    /**
+     * Results of a <code>fanOut</code>, the endpoints that failed are left out of the results and contained in the failures
+     */
+    public static class FanOutResult<T> {
+
+        private final Map<String, T> results = new LinkedHashMap<String, T>();
+
+        private final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+        /**
+         * @return Map of endpoint-name to result in the order of the endpoints
+         */
+        public Map<String, T> getResults() {
+            return results;
+        }
+
+        /**
+         * @return Map of endpoint-name to error-message of the endpoints that failed
+         */
+        public Map<String, String> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Handler for the status of a VM
+     */
+    public interface VmStatusHandler {
+
+        /**
+         * Called for every VM
+         *
+         * @param vmName Name of the VM
+         * @param status Overall-status of the VM
+         * @throws Exception If the status can not be handled, the retrieval is cancelled
+         */
+        void handle(String vmName, String status) throws Exception;
+    }
+
 }
@@ -0,0 +1,34 @@
+package com.zanox.coreservice.vmware.service.mbean;
+
+import java.util.Map;
+
+/**
+ * MBean-interface for the global metrics of the service
+ */
+public interface MetricsMBean {
+
+	/**
+	 * @return Number of SOAP round-trips to the vSphere-server
+	 */
+	public long getSoapCalls();
+
+	/**
+	 * @return Mean time in ms a call waited for a vSphere-session
+	 */
+	public double getSessionWaitMeanMillis();
+
+	/**
+	 * @return 99th percentile of the time in ms a call waited for a vSphere-session
+	 */
+	public double getSessionWaitP99Millis();
+
+	/**
+	 * @return Current values of the gauges (e.g. sessions.active, tasks.tracked)
+	 */
+	public Map<String, Long> getGauges();
+
+	/**
+	 * @return The metrics in the Prometheus text-format
+	 */
+	public String toPrometheus();
+}
@@ -0,0 +1,59 @@
+package com.zanox.coreservice.vmware.service.mbean;
+
+import java.util.Map;
+
+/**
+ * MBean-interface for the metrics of one operation
+ */
+public interface OperationMetricsMBean {
+
+	/**
+	 * @return Number of finished calls
+	 */
+	public long getCount();
+
+	/**
+	 * @return Number of failed calls
+	 */
+	public long getErrorCount();
+
+	/**
+	 * @return Number of failed calls per exception-type
+	 */
+	public Map<String, Long> getErrors();
+
+	/**
+	 * @return Number of calls in flight
+	 */
+	public int getInFlight();
+
+	/**
+	 * @return Mean latency in ms
+	 */
+	public double getMeanMillis();
+
+	/**
+	 * @return Median latency in ms
+	 */
+	public double getP50Millis();
+
+	/**
+	 * @return 99th percentile of the latency in ms
+	 */
+	public double getP99Millis();
+
+	/**
+	 * @return Maximum latency in ms
+	 */
+	public double getMaxMillis();
+
+	/**
+	 * @return Number of SOAP round-trips of all calls
+	 */
+	public long getSoapCalls();
+
+	/**
+	 * @return Mean number of SOAP round-trips per call
+	 */
+	public double getSoapCallsPerCall();
+}
@@ -0,0 +1,38 @@
+package com.zanox.coreservice.vmware.service.mbean.impl;
+
+import com.zanox.coreservice.vmware.service.helper.Metrics;
+import com.zanox.coreservice.vmware.service.mbean.MetricsMBean;
+
+import java.util.Map;
+
+/**
+ * MBean-Implementation for the MetricsMBean
+ */
+public class MetricsMBeanImpl implements MetricsMBean {
+
+	private final Metrics metrics;
+
+	public MetricsMBeanImpl(final Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public long getSoapCalls() {
+		return metrics.getSoapCalls();
+	}
+
+	public double getSessionWaitMeanMillis() {
+		return metrics.getSessionWait().getMean() / 1000;
+	}
+
+	public double getSessionWaitP99Millis() {
+		return metrics.getSessionWait().getPercentile(99) / 1000.0;
+	}
+
+	public Map<String, Long> getGauges() {
+		return metrics.getGauges();
+	}
+
+	public String toPrometheus() {
+		return metrics.toPrometheus();
+	}
+}
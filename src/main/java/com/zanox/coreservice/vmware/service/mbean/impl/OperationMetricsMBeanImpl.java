@@ -0,0 +1,59 @@
+package com.zanox.coreservice.vmware.service.mbean.impl;
+
+import com.zanox.coreservice.vmware.service.helper.OperationMetrics;
+import com.zanox.coreservice.vmware.service.mbean.OperationMetricsMBean;
+
+import java.util.Map;
+
+/**
+ * MBean-Implementation for the OperationMetricsMBean
+ */
+public class OperationMetricsMBeanImpl implements OperationMetricsMBean {
+
+	private final OperationMetrics operation;
+
+	public OperationMetricsMBeanImpl(final OperationMetrics operation) {
+		this.operation = operation;
+	}
+
+	public long getCount() {
+		return operation.getLatency().getCount();
+	}
+
+	public long getErrorCount() {
+		return operation.getErrorCount();
+	}
+
+	public Map<String, Long> getErrors() {
+		return operation.getErrors();
+	}
+
+	public int getInFlight() {
+		return operation.getInFlight();
+	}
+
+	public double getMeanMillis() {
+		return operation.getLatency().getMean() / 1000;
+	}
+
+	public double getP50Millis() {
+		return operation.getLatency().getPercentile(50) / 1000.0;
+	}
+
+	public double getP99Millis() {
+		return operation.getLatency().getPercentile(99) / 1000.0;
+	}
+
+	public double getMaxMillis() {
+		return operation.getLatency().getMax() / 1000.0;
+	}
+
+	public long getSoapCalls() {
+		return operation.getSoapCalls();
+	}
+
+	public double getSoapCallsPerCall() {
+		long count = operation.getLatency().getCount();
+		return count == 0 ? 0 : (double) operation.getSoapCalls() / count;
+	}
+}
@@ -0,0 +1,29 @@
+package com.zanox.coreservice.vmware.service.rest;
+
+import com.zanox.coreservice.vmware.service.exception.AdmissionRejectedException;
+import com.zanox.coreservice.vmware.service.helper.Constants;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps rejected operations to 429 (Too Many Requests), the client should retry after the Retry-After-header
+ */
+@Provider
+public class AdmissionRejectedMapper implements ExceptionMapper<AdmissionRejectedException> {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    @Override
+    public Response toResponse(AdmissionRejectedException exc) {
+        return Response.status(TOO_MANY_REQUESTS)
+                .header("Retry-After", TimeUnit.MILLISECONDS.toSeconds(Constants.ADMISSION_RETRY_AFTER))
+                .type(MediaType.APPLICATION_JSON)
+                .entity("{\"error\":" + JsonHelper.quote(exc.getMessage()) + "}")
+                .build();
+    }
+}
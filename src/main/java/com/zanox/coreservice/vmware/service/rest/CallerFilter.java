@@ -0,0 +1,55 @@
+package com.zanox.coreservice.vmware.service.rest;
+
+import com.zanox.coreservice.vmware.service.helper.AdmissionController;
+import com.zanox.coreservice.vmware.service.helper.Constants;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Sets the caller of a request for the fair queuing of mutating operations: the header X-Caller, the authenticated user or the
+ * remote address
+ */
+@WebFilter("/rest/*")
+public class CallerFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        AdmissionController.setCaller(getCaller((HttpServletRequest) request));
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            AdmissionController.setCaller(null);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static String getCaller(HttpServletRequest request) {
+
+        String caller = request.getHeader(Constants.CALLER_HEADER);
+
+        if (caller != null && !caller.trim().isEmpty())
+            return caller.trim();
+
+        if (request.getRemoteUser() != null)
+            return request.getRemoteUser();
+
+        return request.getRemoteAddr();
+    }
+}
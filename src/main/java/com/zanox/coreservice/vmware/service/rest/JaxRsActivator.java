@@ -27,6 +27,7 @@ public class JaxRsActivator extends Application {
      * given list with all resources defined in the project.
      */
     private void addRestResourceClasses(Set<Class<?>> resources) {
+        resources.add(com.zanox.coreservice.vmware.service.rest.AdmissionRejectedMapper.class);
         resources.add(com.zanox.coreservice.vmware.service.rest.VMWareService.class);
     }
 }
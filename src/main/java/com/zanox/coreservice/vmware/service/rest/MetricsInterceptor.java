@@ -0,0 +1,44 @@
+package com.zanox.coreservice.vmware.service.rest;
+
+import com.zanox.coreservice.vmware.service.helper.Metrics;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import javax.ws.rs.HttpMethod;
+import java.lang.annotation.Annotation;
+
+/**
+ * Records latency, errors and SOAP round-trips of every REST resource-method as operation rest.&lt;method&gt;
+ */
+@Metered
+@Interceptor
+public class MetricsInterceptor {
+
+    @AroundInvoke
+    public Object measure(InvocationContext ctx) throws Exception {
+
+        if (!isResourceMethod(ctx))
+            return ctx.proceed();
+
+        Metrics.Timer timer = Metrics.getInstance().start("rest." + ctx.getMethod().getName());
+
+        try {
+            return ctx.proceed();
+        } catch (Exception exc) {
+            throw timer.failed(exc);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private static boolean isResourceMethod(InvocationContext ctx) {
+
+        for (Annotation annotation : ctx.getMethod().getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(HttpMethod.class))
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -2,18 +2,54 @@ package com.zanox.coreservice.vmware.service.rest;
 
 import com.vmware.vim25.ManagedEntityStatus;
 import com.vmware.vim25.VirtualMachinePowerState;
+import com.zanox.coreservice.vmware.service.enums.VmField;
 import com.zanox.coreservice.vmware.service.exception.VMWareException;
+import com.zanox.coreservice.vmware.service.helper.AsyncTaskRegistry;
+import com.zanox.coreservice.vmware.service.helper.ConfigurationWatcher;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+import com.zanox.coreservice.vmware.service.helper.Metrics;
 import com.zanox.coreservice.vmware.service.helper.VMWareHelper;
 import com.zanox.coreservice.vmware.service.vo.Configuration;
-
+import com.zanox.coreservice.vmware.service.vo.Endpoint;
+import com.zanox.coreservice.vmware.service.vo.PowerRequest;
+import com.zanox.coreservice.vmware.service.vo.PowerResult;
+import com.zanox.coreservice.vmware.service.vo.TaskStatus;
+import com.zanox.coreservice.vmware.service.vo.VmBatch;
+import com.zanox.coreservice.vmware.service.vo.VmFilter;
+import com.zanox.coreservice.vmware.service.vo.VmInfo;
+import com.zanox.coreservice.vmware.service.vo.VmQuery;
+import com.zanox.coreservice.vmware.service.vo.VmResult;
+import com.zanox.coreservice.vmware.service.vo.VmSpec;
+
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,18 +63,58 @@ import static com.zanox.coreservice.vmware.service.enums.OpEnum.SHUTDOWN;
  */
 
 @ApplicationScoped
+@Metered
 @Path("/vmware")
 public class VMWareService {
 
 	private static final Logger logger = Logger.getLogger(VMWareService.class.getName());
 
+	private static final String NDJSON = "application/x-ndjson";
+
+	private static final String SERVER_SENT_EVENTS = "text/event-stream";
+
+	private static final int MAX_TASK_WAIT = 60;
+
+	private static final String PROMETHEUS = "text/plain; version=0.0.4";
+
+	private static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	private static final String FAILED_ENDPOINTS = "X-Failed-Endpoints";
+
+	private final Configuration.Listener configurationListener = new Configuration.Listener() {
+		@Override
+		public void changed(final Configuration previous, final Configuration current) {
+			VMWareHelper.reconfigure(current);
+		}
+	};
+
+	private ConfigurationWatcher configurationWatcher;
+
+	@PostConstruct
+	public void init() {
+
+		Configuration.addListener(configurationListener);
+
+		File configFile = Configuration.getConfigFile();
+
+		if (configFile != null) {
+			configurationWatcher = new ConfigurationWatcher(configFile);
+			configurationWatcher.start();
+		}
+	}
+
 	@PreDestroy
 	public void destroy() {
 		try {
 
-			Configuration conf = Configuration.getInstance();
+			if (configurationWatcher != null)
+				configurationWatcher.stop();
+
+			Configuration.removeListener(configurationListener);
 
-			VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl()).logout();
+			VMWareHelper.shutdownAll();
+			AsyncTaskRegistry.getInstance().shutdown();
+			Metrics.getInstance().shutdown();
 		}
 
 		catch (Exception exc) {
@@ -48,25 +124,28 @@ public class VMWareService {
 
     @GET
     @Path("/resourcePools")
-	public String getResourcePools() throws VMWareException {
-		Configuration conf = Configuration.getInstance();
+	public String getResourcePools(@QueryParam("endpoint") String endpoint) throws VMWareException {
+		Endpoint target = getEndpoint(endpoint);
 
-		VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+		VMWareHelper helper = VMWareHelper.getInstance(target);
 
-		return helper.getResourcePools(conf.getDcName());
+		return helper.getResourcePools(target.getDcName());
 
 	}
 
     @PUT
     @Path("/vm/{vmname}")
-	public String createVM(@PathParam("vmname") String vmName,
-                           @QueryParam("memorySize") Integer memorySize,
-                           @QueryParam("diskSize") Integer diskSize,
-                           @QueryParam("cpuCount") Integer cpuCount,
-                           @QueryParam("networkCount") Integer networkCount,
-                           @QueryParam("poolName") String poolName,
-                           @QueryParam("hostName") String hostName,
-                           @QueryParam("comment") String comment) throws VMWareException {
+	public Response createVM(@PathParam("vmname") final String vmName,
+                           @QueryParam("memorySize") final Integer memorySize,
+                           @QueryParam("diskSize") final Integer diskSize,
+                           @QueryParam("cpuCount") final Integer cpuCount,
+                           @QueryParam("networkCount") final Integer networkCount,
+                           @QueryParam("poolName") final String poolName,
+                           @QueryParam("hostName") final String hostName,
+                           @QueryParam("comment") final String comment,
+                           @QueryParam("template") final String template,
+                           @QueryParam("async") boolean async,
+                           @QueryParam("endpoint") final String endpoint) throws VMWareException {
 
 		logger.log(Level.FINE, "Name: " + vmName);
 		logger.log(Level.FINE, "Memorysize: " + memorySize);
@@ -81,7 +160,8 @@ public class VMWareService {
 		if (memorySize == null)
 			throw new VMWareException("MemorySize is null");
 
-		if (diskSize == null)
+		// clones get the disk of the template
+		if (diskSize == null && template == null && Configuration.getInstance().getTemplate() == null)
 			throw new VMWareException("DiskSize is null");
 
 		if (cpuCount == null)
@@ -93,34 +173,131 @@ public class VMWareService {
 		if (networkCount == null || networkCount < 1)
 			throw new VMWareException("NetworkCount is NULL or < 1");
 
+		if (async) {
+			VMWareHelper.getInstance(getEndpoint(endpoint)).checkAdmission();
+
+			return accepted(AsyncTaskRegistry.getInstance().submit("createVM", vmName, new Callable<String>() {
+				@Override
+				public String call() throws VMWareException {
+					return createVM(endpoint, vmName, memorySize, diskSize, cpuCount, networkCount, poolName, hostName, comment, template);
+				}
+			}));
+		}
+
+		return Response.ok(createVM(endpoint, vmName, memorySize, diskSize, cpuCount, networkCount, poolName, hostName, comment, template))
+				.build();
+	}
+
+	private String createVM(String endpoint, String vmName, Integer memorySize, Integer diskSize, Integer cpuCount, Integer networkCount,
+							String poolName, String hostName, String comment, String template) throws VMWareException {
+
+		VmSpec spec = new VmSpec();
+		spec.setName(vmName);
+		spec.setMemorySize(memorySize);
+		spec.setDiskSize(diskSize);
+		spec.setCpuCount(cpuCount);
+		spec.setNetworkCount(networkCount);
+		spec.setPoolName(poolName);
+		spec.setHostName(hostName);
+		spec.setComment(comment);
+		spec.setTemplate(template);
+
+		// the batch-path checks the name, resolves the inventory with one call and returns the MAC-addresses from the created VM
+		VmResult result = createVMs(endpoint, Collections.singletonList(spec)).get(0);
+
+		if (!result.isSuccess())
+			throw new VMWareException(result.getError());
+
+		return result.getMacAddresses().isEmpty() ? null : result.getMacAddresses().get(0);
+	}
+
+    /**
+     * Creates a batch of VMs concurrently, the number of concurrent creates is limited per HostSystem and per datastore
+     *
+     * @param batch The VMs to create
+     * @param async If true the batch is executed asynchronously and the status of the task is returned
+     * @return The result per VM as JSON-array
+     * @throws VMWareException If a VM-spec is invalid or the shared inventory-objects can not be resolved
+     */
+    @POST
+    @Path("/vms")
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces(MediaType.APPLICATION_JSON)
+	public Response createVMs(final VmBatch batch, @QueryParam("async") boolean async, @QueryParam("endpoint") final String endpoint)
+			throws VMWareException {
+
+		if (batch == null || batch.getVms() == null || batch.getVms().isEmpty())
+			throw new VMWareException("Batch is empty");
+
+		String template = Configuration.getInstance().getTemplate();
+
+		for (VmSpec spec : batch.getVms())
+			validate(spec, template);
+
+		if (async) {
+			VMWareHelper.getInstance(getEndpoint(endpoint)).checkAdmission();
+
+			return accepted(AsyncTaskRegistry.getInstance().submit("createVMs", batch.getVms().size() + " VMs", new Callable<String>() {
+				@Override
+				public String call() throws VMWareException {
+					return toJson(createVMs(endpoint, batch.getVms()));
+				}
+			}));
+		}
+
+		return Response.ok(toJson(createVMs(endpoint, batch.getVms()))).build();
+	}
+
+	private List<VmResult> createVMs(String endpoint, List<VmSpec> specs) throws VMWareException {
+
 		Configuration conf = Configuration.getInstance();
+		Endpoint target = getEndpoint(endpoint);
+
+		VMWareHelper helper = VMWareHelper.getInstance(target);
+
+		return helper.createVMs(target.getDcName(), specs, conf.getGuestOsId(), conf.getDiskMode(), conf.getDataStoreName(),
+				conf.getNetName(), conf.getNicName(), conf.getVirtualNetwork(), conf.getTemplate(), conf.getTemplateSnapshot());
+	}
+
+	private static String toJson(List<VmResult> results) {
 
-		String dataStoreName = conf.getDataStoreName();
-		String netName = conf.getNetName();
-		String virtualNetwork = conf.getVirtualNetwork();
+		StringBuilder builder = new StringBuilder("[");
 
-		VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+		for (int i = 0; i < results.size(); i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(results.get(i).toJson());
+		}
+
+		return builder.append(']').toString();
+	}
+
+	private static void validate(VmSpec spec, String template) throws VMWareException {
+
+		if (spec.getName() == null)
+			throw new VMWareException("Name of VM is null");
 
-		if (!helper.isVMNameAvailable(vmName))
-			throw new VMWareException("VM \"" + vmName + "\" exists already!");
+		if (spec.getMemorySize() == null)
+			throw new VMWareException("MemorySize of " + spec.getName() + " is null");
 
-		Boolean retVal =
-			helper.createVM(conf.getDcName(), vmName, (long) (memorySize * 1024), cpuCount, networkCount, conf.getGuestOsId(), poolName, hostName,
-				(long) (diskSize * 1024 * 1024), conf.getDiskMode(), dataStoreName, netName, conf.getNicName(), comment, virtualNetwork);
+		// clones get the disk of the template
+		if (spec.getDiskSize() == null && spec.getTemplate() == null && template == null)
+			throw new VMWareException("DiskSize of " + spec.getName() + " is null");
 
-		if (retVal != null && retVal == Boolean.TRUE)
-			return helper.getMacAddressForVm(vmName);
+		if (spec.getCpuCount() == null)
+			throw new VMWareException("CPU-count of " + spec.getName() + " is null");
 
-		return null;
+		if (spec.getPoolName() == null)
+			throw new VMWareException("Poolname of " + spec.getName() + " is null");
 
+		if (spec.getNetworkCount() == null || spec.getNetworkCount() < 1)
+			throw new VMWareException("NetworkCount of " + spec.getName() + " is NULL or < 1");
 	}
 
     @GET
     @Path("/hostSystems")
-	public String getAllHostSystems() throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public String getAllHostSystems(@QueryParam("endpoint") String endpoint) throws VMWareException {
+        VMWareHelper helper = getHelper(endpoint);
 
         List<String> hostSystems = helper.getAllHostSystems();
 
@@ -138,12 +315,11 @@ public class VMWareService {
 
     @GET
     @Path("/powerstate/{vmname}")
-	public String getVMPowerState(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public String getVMPowerState(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent,
+                             @QueryParam("endpoint") String endpoint) throws VMWareException {
+        VMWareHelper helper = getHelper(endpoint, vmName, consistent);
 
-        VirtualMachinePowerState state = helper.getPowerState(vmName);
+        VirtualMachinePowerState state = helper.getPowerState(vmName, consistent);
 
         if (state == null) {
             return null;
@@ -155,67 +331,298 @@ public class VMWareService {
 
     @DELETE
     @Path("/vm/{vmname}")
-	public Boolean deleteVM(@PathParam("vmname") String vmName) throws VMWareException {
+	public Response deleteVM(@PathParam("vmname") final String vmName, @QueryParam("async") boolean async,
+                             @QueryParam("endpoint") String endpoint) throws VMWareException {
+
 
+            final VMWareHelper helper = getHelper(endpoint, vmName, false);
 
-            Configuration conf = Configuration.getInstance();
+            if (async) {
+                helper.checkAdmission();
 
-            VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+                return accepted(AsyncTaskRegistry.getInstance().submit("deleteVM", vmName, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws VMWareException {
+                        return helper.deleteVM(vmName);
+                    }
+                }));
+            }
 
-            return helper.deleteVM(vmName);
+            return Response.ok(helper.deleteVM(vmName)).build();
 	}
 
     @GET
     @Path("/name/{vmname}")
-	public Boolean isVMNameAvailable(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public Boolean isVMNameAvailable(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent,
+                                     @QueryParam("endpoint") String endpoint) throws VMWareException {
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+        // without an endpoint the name has to be available in all vCenters
+        if (endpoint == null)
+            return VMWareHelper.findOwner(Configuration.getInstance().getEndpoints(), vmName, consistent) == null;
 
-        return helper.isVMNameAvailable(vmName);
+        return getHelper(endpoint).isVMNameAvailable(vmName, consistent);
 
     }
 
     @GET
     @Path("/vmstart/{vmname}")
-	public Boolean startVm(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public Response startVm(@PathParam("vmname") final String vmName, @QueryParam("async") boolean async,
+                            @QueryParam("endpoint") String endpoint) throws VMWareException {
+        final VMWareHelper helper = getHelper(endpoint, vmName, false);
+
+        if (async) {
+            helper.checkAdmission();
+
+            return accepted(AsyncTaskRegistry.getInstance().submit(POWER_ON.name(), vmName, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws VMWareException {
+                    return helper.vmOperation(vmName, POWER_ON);
+                }
+            }));
+        }
 
-        return helper.vmOperation(vmName, POWER_ON);
+        return Response.ok(helper.vmOperation(vmName, POWER_ON)).build();
 	}
 
     @GET
     @Path("/vmstop/{vmname}")
-	public Boolean stopVm(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public Response stopVm(@PathParam("vmname") final String vmName, @QueryParam("async") boolean async,
+                            @QueryParam("endpoint") String endpoint) throws VMWareException {
+        final VMWareHelper helper = getHelper(endpoint, vmName, false);
+
+        if (async) {
+            helper.checkAdmission();
+
+            return accepted(AsyncTaskRegistry.getInstance().submit(SHUTDOWN.name(), vmName, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws VMWareException {
+                    return helper.vmOperation(vmName, SHUTDOWN);
+                }
+            }));
+        }
+
+        return Response.ok(helper.vmOperation(vmName, SHUTDOWN)).build();
+	}
+
+    /**
+     * Executes a power-operation on many VMs concurrently
+     *
+     * @param request Names and/or a name-pattern of the VMs and the operation
+     * @param async If true the operation is executed asynchronously and the status of the task is returned
+     * @return The outcome and duration per VM as JSON-array
+     * @throws VMWareException If the request is invalid or the VMs can not be resolved
+     */
+    @POST
+    @Path("/vms/power")
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces(MediaType.APPLICATION_JSON)
+	public Response vmOperations(final PowerRequest request, @QueryParam("async") boolean async, @QueryParam("endpoint") final String endpoint)
+			throws VMWareException {
+
+		if (request == null || request.getOperation() == null)
+			throw new VMWareException("Operation is null");
+
+		if ((request.getNames() == null || request.getNames().isEmpty()) && request.getPattern() == null)
+			throw new VMWareException("Names and pattern are null");
+
+		String target = request.getPattern() != null ? request.getPattern() : request.getNames().size() + " VMs";
+
+		if (async) {
+			getHelper(endpoint).checkAdmission();
+
+			return accepted(AsyncTaskRegistry.getInstance().submit(request.getOperation().name(), target, new Callable<String>() {
+				@Override
+				public String call() throws VMWareException {
+					return vmOperations(endpoint, request);
+				}
+			}));
+		}
+
+		return Response.ok(vmOperations(endpoint, request)).build();
+	}
+
+	private String vmOperations(String endpoint, PowerRequest request) throws VMWareException {
+
+		Configuration conf = Configuration.getInstance();
+
+		VMWareHelper helper = getHelper(endpoint);
+
+		List<PowerResult> results =
+				helper.vmOperations(request.getNames(), request.getPattern(), request.getOperation(), conf.getMaxPowerOperations());
+
+		StringBuilder builder = new StringBuilder("[");
+
+		for (int i = 0; i < results.size(); i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(results.get(i).toJson());
+		}
+
+		return builder.append(']').toString();
+	}
+
+    /**
+     * Returns fields of many VMs with one PropertyCollector-retrieval per vCenter
+     *
+     * @param query Names and/or a name-pattern of the VMs and the fields (e.g. powerState, host, macAddresses)
+     * @return JSON-object of VM-name to an object of the requested fields, null for unknown VMs given by name, the header
+     * X-Failed-Endpoints contains the endpoints that failed
+     * @throws VMWareException If the query is invalid or the retrieval fails
+     */
+    @POST
+    @Path("/vms/query")
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces(MediaType.APPLICATION_JSON)
+	public Response queryVms(final VmQuery query, @QueryParam("endpoint") String endpoint) throws VMWareException {
+
+		if (query == null || ((query.getNames() == null || query.getNames().isEmpty()) && query.getPattern() == null))
+			throw new VMWareException("Names and pattern are null");
+
+		final Set<VmField> fields = new LinkedHashSet<VmField>();
+
+		for (String key : query.getFields() == null ? Collections.<String>emptyList() : query.getFields()) {
+			VmField field = VmField.forKey(key);
+
+			if (field == null)
+				throw new VMWareException("Unknown field " + key);
+
+			fields.add(field);
+		}
+
+		if (fields.isEmpty())
+			throw new VMWareException("Fields are empty");
+
+		VMWareHelper.FanOutResult<Map<String, Map<VmField, Object>>> results = VMWareHelper.fanOut(getEndpoints(endpoint),
+				new VMWareHelper.EndpointCall<Map<String, Map<VmField, Object>>>() {
+					@Override
+					public Map<String, Map<VmField, Object>> call(VMWareHelper helper) throws Exception {
+						return helper.queryVms(query.getNames(), query.getPattern(), fields);
+					}
+				});
+
+		// a VM is known by one vCenter, the others return null for it
+		Map<String, Map<VmField, Object>> vms = new LinkedHashMap<String, Map<VmField, Object>>();
+
+		for (Map<String, Map<VmField, Object>> result : results.getResults().values()) {
+			for (Map.Entry<String, Map<VmField, Object>> vm : result.entrySet()) {
+				if (vm.getValue() != null || !vms.containsKey(vm.getKey()))
+					vms.put(vm.getKey(), vm.getValue());
+			}
+		}
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+		StringBuilder builder = new StringBuilder("{");
+
+		for (Map.Entry<String, Map<VmField, Object>> vm : vms.entrySet()) {
+			if (builder.length() > 1)
+				builder.append(',');
+			builder.append(JsonHelper.quote(vm.getKey())).append(':');
+
+			if (vm.getValue() == null) {
+				builder.append("null");
+				continue;
+			}
+
+			builder.append('{');
+			boolean first = true;
+			for (Map.Entry<VmField, Object> field : vm.getValue().entrySet()) {
+				if (!first)
+					builder.append(',');
+				builder.append(JsonHelper.quote(field.getKey().getKey())).append(':').append(JsonHelper.value(field.getValue()));
+				first = false;
+			}
+			builder.append('}');
+		}
 
-        return helper.vmOperation(vmName, SHUTDOWN);
+		return withFailures(Response.ok(builder.append('}').toString()), results).build();
 	}
 
     @GET
     @Path("/macAddress/{vmname}")
-	public String getMacAddress(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public String getMacAddress(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent,
+                             @QueryParam("endpoint") String endpoint) throws VMWareException {
+        VMWareHelper helper = getHelper(endpoint, vmName, consistent);
+
+        return helper.getMacAddressForVm(vmName, consistent);
+	}
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+    /**
+     * Returns the MAC-addresses of all network-adapters of many VMs
+     *
+     * @param vmNames Names of the VMs (query-parameter vm, repeated)
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return JSON-object of VM-name to the array of its MAC-addresses, null for unknown VMs, the header X-Failed-Endpoints contains
+     * the endpoints that failed
+     * @throws VMWareException If something goes wrong
+     */
+    @GET
+    @Path("/macAddress")
+    @Produces(MediaType.APPLICATION_JSON)
+	public Response getMacAddresses(@QueryParam("vm") final List<String> vmNames, @QueryParam("consistent") final boolean consistent,
+                                  @QueryParam("endpoint") String endpoint) throws VMWareException {
+
+        VMWareHelper.FanOutResult<Map<String, List<String>>> results = VMWareHelper.fanOut(getEndpoints(endpoint),
+                new VMWareHelper.EndpointCall<Map<String, List<String>>>() {
+                    @Override
+                    public Map<String, List<String>> call(VMWareHelper helper) throws Exception {
+                        return helper.getMacAddressesForVMs(vmNames, consistent);
+                    }
+                });
+
+        // a VM is known by one vCenter, the others return null for it
+        Map<String, List<String>> macAddresses = new LinkedHashMap<String, List<String>>();
+
+        for (Map<String, List<String>> result : results.getResults().values()) {
+            for (Map.Entry<String, List<String>> vm : result.entrySet()) {
+                if (vm.getValue() != null || !macAddresses.containsKey(vm.getKey()))
+                    macAddresses.put(vm.getKey(), vm.getValue());
+            }
+        }
 
-        return helper.getMacAddressForVm(vmName);
+        StringBuilder builder = new StringBuilder("{");
+
+        for (Map.Entry<String, List<String>> vm : macAddresses.entrySet()) {
+            if (builder.length() > 1)
+                builder.append(',');
+            builder.append(JsonHelper.quote(vm.getKey())).append(':');
+
+            if (vm.getValue() == null) {
+                builder.append("null");
+                continue;
+            }
+
+            builder.append('[');
+            for (int i = 0; i < vm.getValue().size(); i++) {
+                if (i > 0)
+                    builder.append(',');
+                builder.append(JsonHelper.quote(vm.getValue().get(i)));
+            }
+            builder.append(']');
+        }
+
+        return withFailures(Response.ok(builder.append('}').toString()), results).build();
 	}
 
     @POST
     @Path("/vlan/{vmname}")
-	public boolean changeVlan(@PathParam("vmname") String vmName,
-                              @QueryParam("netname") String netName,
-                              @QueryParam("nicname") String nicName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public Response changeVlan(@PathParam("vmname") final String vmName,
+                              @QueryParam("netname") final String netName,
+                              @QueryParam("nicname") final String nicName,
+                              @QueryParam("async") boolean async,
+                              @QueryParam("endpoint") String endpoint) throws VMWareException {
+        final VMWareHelper helper = getHelper(endpoint, vmName, false);
+
+        if (async) {
+            helper.checkAdmission();
+
+            return accepted(AsyncTaskRegistry.getInstance().submit("changeVlan", vmName, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws VMWareException {
+                    return helper.changeVlan(vmName, netName, nicName);
+                }
+            }));
+        }
 
-        return helper.changeVlan(vmName, netName, nicName);
+        return Response.ok(helper.changeVlan(vmName, netName, nicName)).build();
 	}
 
 	/**
@@ -226,12 +633,15 @@ public class VMWareService {
 	 */
 	@POST
     @Path("/session")
-	public void closeSession() throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public void closeSession(@QueryParam("endpoint") String endpoint) throws VMWareException {
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+        if (endpoint != null) {
+            getHelper(endpoint).logout();
+            return;
+        }
 
-        helper.logout();
+        for (VMWareHelper helper : VMWareHelper.getInstances())
+            helper.logout();
 	}
 
 	private Properties readConfig() throws IOException {
@@ -245,51 +655,557 @@ public class VMWareService {
 
     @GET
     @Path("/vmstatus/{vmname}")
-	public String getStatusForVM(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public String getStatusForVM(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent,
+                             @QueryParam("endpoint") String endpoint) throws VMWareException {
+        VMWareHelper helper = getHelper(endpoint, vmName, consistent);
 
-        ManagedEntityStatus status = helper.getStatusForVm(vmName);
+        ManagedEntityStatus status = helper.getStatusForVm(vmName, consistent);
 
         if (status == null) {
             throw new VMWareException("Name of VM " + vmName + " not found");
         }
 
-        return helper.getStatusForVm(vmName).toString();
+        return status.toString();
 	}
 
+    /**
+     * Returns the status of all VMs as name=status-list. With filter- or paging-parameters only the matching VMs of the page are
+     * returned, ordered by name, and the header X-Next-Cursor contains the cursor of the next page. Over several endpoints the list
+     * is returned at once and the header X-Failed-Endpoints contains the endpoints that failed, a single endpoint is streamed.
+     *
+     * @return The list
+     */
     @GET
     @Path("/vmstatus")
-	public String getStatusForAllVm() throws VMWareException {
-        Configuration conf = Configuration.getInstance();
-
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+	public Response getStatusForAllVm(@QueryParam("endpoint") String endpoint,
+                                      @QueryParam("name") String name, @QueryParam("regex") String regex,
+                                      @QueryParam("pool") String pool, @QueryParam("host") String host,
+                                      @QueryParam("powerState") String powerState, @QueryParam("status") String status,
+                                      @QueryParam("cursor") String cursor, @QueryParam("limit") int limit,
+                                      @QueryParam("consistent") boolean consistent) throws VMWareException {
+        final Configuration conf = Configuration.getInstance();
+
+        final List<Endpoint> endpoints = getEndpoints(endpoint);
+
+        VmFilter filter = new VmFilter(name, regex, pool, host, powerState, status);
+
+        if (!filter.isEmpty() || cursor != null || limit != 0)
+            return listVms(endpoints, filter, cursor, limit, consistent, false);
+
+        if (endpoints.size() > 1) {
+            // the failed endpoints are known after the retrieval only, too late for the header of a stream
+            final StringBuilder builder = new StringBuilder();
+
+            VMWareHelper.FanOutResult<Void> result = VMWareHelper.fanOut(endpoints, new VMWareHelper.EndpointCall<Void>() {
+                @Override
+                public Void call(VMWareHelper helper) throws Exception {
+                    helper.getStatusForAllVm(conf.getRetrieveMaxObjects(), new VMWareHelper.VmStatusHandler() {
+                        @Override
+                        public void handle(String vmName, String status) {
+                            // the endpoints are retrieved in parallel
+                            synchronized (builder) {
+                                if (builder.length() > 0)
+                                    builder.append(", ");
+
+                                builder.append(vmName).append('=').append(status);
+                            }
+                        }
+                    });
+                    return null;
+                }
+            });
+
+            return withFailures(Response.ok(builder.toString()), result).build();
+        }
 
-        HashMap<String, String> status = helper.getStatusForAllVm();
+        return Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+
+                final VMWareHelper.VmStatusHandler handler = new VMWareHelper.VmStatusHandler() {
+                    private boolean first = true;
+
+                    @Override
+                    public void handle(String vmName, String status) throws IOException {
+                        synchronized (writer) {
+                            if (!first)
+                                writer.write(", ");
+
+                            writer.write(vmName + "=" + status);
+                            first = false;
+                        }
+                    }
+                };
+
+                try {
+                    VMWareHelper.fanOut(endpoints, new VMWareHelper.EndpointCall<Void>() {
+                        @Override
+                        public Void call(VMWareHelper helper) throws Exception {
+                            helper.getStatusForAllVm(conf.getRetrieveMaxObjects(), handler);
+                            return null;
+                        }
+                    });
+                } catch (VMWareException exc) {
+                    throw new WebApplicationException(exc);
+                }
+
+                writer.flush();
+            }
+        }).build();
+	}
 
-        String s = status.toString();
-        return s.substring(1, s.length() - 1);
+    /**
+     * Streams the status of all VMs as newline-delimited JSON, one object per VM. With filter- or paging-parameters only the matching
+     * VMs of the page are returned, ordered by name and with power-state, HostSystem and ResourcePool, and the header X-Next-Cursor
+     * contains the cursor of the next page. An endpoint that failed is reported by a closing object with endpoint and error.
+     *
+     * @return The stream
+     */
+    @GET
+    @Path("/vms/status")
+    @Produces(NDJSON)
+	public Response streamStatusForAllVm(@QueryParam("endpoint") String endpoint,
+                                         @QueryParam("name") String name, @QueryParam("regex") String regex,
+                                         @QueryParam("pool") String pool, @QueryParam("host") String host,
+                                         @QueryParam("powerState") String powerState, @QueryParam("status") String status,
+                                         @QueryParam("cursor") String cursor, @QueryParam("limit") int limit,
+                                         @QueryParam("consistent") boolean consistent) throws VMWareException {
+        final Configuration conf = Configuration.getInstance();
+
+        final List<Endpoint> endpoints = getEndpoints(endpoint);
+
+        VmFilter filter = new VmFilter(name, regex, pool, host, powerState, status);
+
+        if (!filter.isEmpty() || cursor != null || limit != 0)
+            return listVms(endpoints, filter, cursor, limit, consistent, true);
+
+        return Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+                final int pageSize = conf.getRetrieveMaxObjects();
+                final boolean multiple = endpoints.size() > 1;
+
+                VMWareHelper.FanOutResult<Void> result;
+
+                try {
+                    result = VMWareHelper.fanOut(endpoints, new VMWareHelper.EndpointCall<Void>() {
+                        @Override
+                        public Void call(final VMWareHelper helper) throws Exception {
+                            final String source = multiple ? ",\"endpoint\":" + JsonHelper.quote(helper.getEndpoint()) : "";
+
+                            helper.getStatusForAllVm(pageSize, new VMWareHelper.VmStatusHandler() {
+                                private int count = 0;
+
+                                @Override
+                                public void handle(String vmName, String status) throws IOException {
+                                    String line = "{\"name\":" + JsonHelper.quote(vmName) + ",\"overallStatus\":" + JsonHelper.quote(status)
+                                            + source + "}\n";
+
+                                    // the endpoints are retrieved in parallel and write to the same stream
+                                    synchronized (writer) {
+                                        writer.write(line);
+
+                                        if (++count % pageSize == 0)
+                                            writer.flush();
+                                    }
+                                }
+                            });
+                            return null;
+                        }
+                    });
+                } catch (VMWareException exc) {
+                    throw new WebApplicationException(exc);
+                }
+
+                // the headers are sent already, so the failed endpoints close the stream
+                for (Map.Entry<String, String> failure : result.getFailures().entrySet())
+                    writer.write("{\"endpoint\":" + JsonHelper.quote(failure.getKey()) + ",\"error\":" + JsonHelper.quote(failure.getValue())
+                            + "}\n");
+
+                writer.flush();
+            }
+        }).build();
 	}
 
+    /**
+     * Returns a page of the VMs matching a filter over several endpoints. Every endpoint returns its first VMs after the cursor, the
+     * merged VMs are ordered by name, endpoint and reference and cut to the limit. The cursor is the URL-encoded page-key of the last VM,
+     * so VMs with the same name are neither lost nor skipped.
+     */
+    private static Response listVms(List<Endpoint> endpoints, final VmFilter filter, final String cursor, int limit, final boolean consistent,
+                                    boolean ndjson) throws VMWareException {
+
+        if (limit < 0)
+            throw new VMWareException("Limit is < 0");
+
+        final int pageSize = limit;
+
+        VMWareHelper.FanOutResult<List<VmInfo>> results = VMWareHelper.fanOut(endpoints, new VMWareHelper.EndpointCall<List<VmInfo>>() {
+            @Override
+            public List<VmInfo> call(VMWareHelper helper) throws Exception {
+                return helper.listVms(filter, cursor, pageSize, consistent);
+            }
+        });
+
+        TreeMap<String, VmInfo> page = new TreeMap<String, VmInfo>();
+        Map<String, String> owners = new HashMap<String, String>();
+
+        for (Map.Entry<String, List<VmInfo>> result : results.getResults().entrySet()) {
+            for (VmInfo vm : result.getValue()) {
+                String key = VMWareHelper.getPageKey(vm.getName(), result.getKey(), vm.getId());
+                page.put(key, vm);
+                owners.put(key, result.getKey());
+            }
+        }
+
+        String next = null;
+
+        if (limit > 0 && page.size() > limit) {
+            while (page.size() > limit)
+                page.pollLastEntry();
+
+            next = page.lastKey();
+        }
+
+        boolean multiple = endpoints.size() > 1;
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, VmInfo> entry : page.entrySet()) {
+            VmInfo vm = entry.getValue();
+
+            if (ndjson) {
+                builder.append("{\"name\":").append(JsonHelper.quote(vm.getName()))
+                        .append(",\"overallStatus\":").append(JsonHelper.quote(vm.getOverallStatus() == null ? null : vm.getOverallStatus().name()))
+                        .append(",\"powerState\":").append(JsonHelper.quote(vm.getPowerState() == null ? null : vm.getPowerState().name()))
+                        .append(",\"host\":").append(JsonHelper.quote(vm.getHostName()))
+                        .append(",\"resourcePool\":").append(JsonHelper.quote(vm.getResourcePool()));
+
+                if (multiple)
+                    builder.append(",\"endpoint\":").append(JsonHelper.quote(owners.get(entry.getKey())));
+
+                builder.append("}\n");
+            } else {
+                if (builder.length() > 0)
+                    builder.append(", ");
+
+                builder.append(vm.getName()).append('=').append(vm.getOverallStatus() == null ? null : vm.getOverallStatus().name());
+            }
+        }
+
+        Response.ResponseBuilder response = Response.ok(builder.toString());
+
+        if (next != null) {
+            try {
+                response.header(NEXT_CURSOR, URLEncoder.encode(next, "UTF-8"));
+            } catch (UnsupportedEncodingException exc) {
+                throw new VMWareException(exc);
+            }
+        }
+
+        return withFailures(response, results).build();
+    }
+
+    /**
+     * Sets the header X-Failed-Endpoints to the comma-separated names of the endpoints that failed in a fan-out
+     */
+    private static Response.ResponseBuilder withFailures(Response.ResponseBuilder response, VMWareHelper.FanOutResult<?> result) {
+
+        if (!result.getFailures().isEmpty()) {
+            StringBuilder failed = new StringBuilder();
+
+            for (String name : result.getFailures().keySet()) {
+                if (failed.length() > 0)
+                    failed.append(',');
+                failed.append(name);
+            }
+
+            response.header(FAILED_ENDPOINTS, failed.toString());
+        }
+
+        return response;
+    }
+
     @GET
     @Path("/hostsystem/{vmname}")
-	public String getHostSystemForVM(@PathParam("vmname") String vmName) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public String getHostSystemForVM(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent,
+                             @QueryParam("endpoint") String endpoint) throws VMWareException {
+        VMWareHelper helper = getHelper(endpoint, vmName, consistent);
+
+        return helper.getHostSystemForVM(vmName, consistent);
+	}
+
+    /**
+     * Returns the HostSystems of many VMs
+     *
+     * @param vmNames Names of the VMs (query-parameter vm, repeated)
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirror is used if it is in sync
+     * @return JSON-object of VM-name to HostSystem-name, the header X-Failed-Endpoints contains the endpoints that failed
+     * @throws VMWareException If something goes wrong
+     */
+    @GET
+    @Path("/hostsystems")
+    @Produces(MediaType.APPLICATION_JSON)
+	public Response getHostSystemsForVMs(@QueryParam("vm") final List<String> vmNames, @QueryParam("consistent") final boolean consistent,
+                                       @QueryParam("endpoint") String endpoint) throws VMWareException {
+
+        VMWareHelper.FanOutResult<Map<String, String>> results = VMWareHelper.fanOut(getEndpoints(endpoint),
+                new VMWareHelper.EndpointCall<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call(VMWareHelper helper) throws Exception {
+                        return helper.getHostSystemsForVMs(vmNames, consistent);
+                    }
+                });
+
+        // a VM is known by one vCenter, the others return null for it
+        Map<String, String> placements = new LinkedHashMap<String, String>();
+
+        for (Map<String, String> result : results.getResults().values()) {
+            for (Map.Entry<String, String> placement : result.entrySet()) {
+                if (placement.getValue() != null || !placements.containsKey(placement.getKey()))
+                    placements.put(placement.getKey(), placement.getValue());
+            }
+        }
+
+        StringBuilder builder = new StringBuilder("{");
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+        for (Map.Entry<String, String> placement : placements.entrySet()) {
+            if (builder.length() > 1)
+                builder.append(',');
+            builder.append(JsonHelper.quote(placement.getKey())).append(':').append(JsonHelper.quote(placement.getValue()));
+        }
 
-        return helper.getHostSystemForVM(vmName);
+        return withFailures(Response.ok(builder.append('}').toString()), results).build();
 	}
 
     @POST
     @Path("/hostmove/{vmname}")
-	public Boolean moveVmToHostSystem(@PathParam("vmname") String vmName, @QueryParam("hostsystem") String hostSystem) throws VMWareException {
-        Configuration conf = Configuration.getInstance();
+	public Response moveVmToHostSystem(@PathParam("vmname") final String vmName, @QueryParam("hostsystem") final String hostSystem,
+                                       @QueryParam("async") boolean async,
+                                       @QueryParam("endpoint") String endpoint) throws VMWareException {
+        final VMWareHelper helper = getHelper(endpoint, vmName, false);
+
+        if (async) {
+            helper.checkAdmission();
+
+            return accepted(AsyncTaskRegistry.getInstance().submit("moveVmToHostSystem", vmName, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws VMWareException {
+                    return helper.moveVmToHostSystem(vmName, hostSystem);
+                }
+            }));
+        }
+
+        return Response.ok(helper.moveVmToHostSystem(vmName, hostSystem)).build();
+	}
+
+    /**
+     * Returns the configured vCenter-endpoints, the first one is used if a request has no endpoint-parameter
+     *
+     * @return JSON-array of the endpoints
+     */
+    @GET
+    @Path("/endpoints")
+    @Produces(MediaType.APPLICATION_JSON)
+	public String getEndpoints() {
+        StringBuilder builder = new StringBuilder("[");
+
+        for (Endpoint endpoint : Configuration.getInstance().getEndpoints()) {
+            if (builder.length() > 1)
+                builder.append(',');
+            builder.append(endpoint.toJson());
+        }
+
+        return builder.append(']').toString();
+	}
+
+    /**
+     * Returns the vCenter-endpoint that contains a VM, all endpoints are asked in parallel
+     *
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked, otherwise the inventory-mirrors are used if they are in sync
+     * @return The endpoint as JSON
+     * @throws VMWareException If all endpoints failed
+     */
+    @GET
+    @Path("/owner/{vmname}")
+    @Produces(MediaType.APPLICATION_JSON)
+	public String getOwner(@PathParam("vmname") String vmName, @QueryParam("consistent") boolean consistent) throws VMWareException {
+        Endpoint owner = VMWareHelper.findOwner(Configuration.getInstance().getEndpoints(), vmName, consistent);
+
+        if (owner == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+
+        return owner.toJson();
+	}
+
+    /**
+     * Returns the status of an asynchronous task
+     *
+     * @param id ID of the task
+     * @param wait Maximum time in seconds to wait for the task to finish (long-poll), 0 returns immediately
+     * @return The status as JSON
+     */
+    @GET
+    @Path("/tasks/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+	public String getTaskStatus(@PathParam("id") String id, @QueryParam("wait") int wait) throws InterruptedException {
+        TaskStatus status = getTask(id);
+
+        if (wait > 0)
+            status.awaitDone(Math.min(wait, MAX_TASK_WAIT) * 1000L);
+
+        return status.toJson();
+	}
 
-        VMWareHelper helper = VMWareHelper.getInstance(conf.getUserName(), conf.getPassword(), conf.getUrl());
+    /**
+     * Streams the status-changes of an asynchronous task as server-sent events until the task is finished. The stream is closed after
+     * MAX_TASK_WAIT seconds, so a long task does not hold a request-thread; SSE-clients reconnect and get the current status first.
+     *
+     * @param id ID of the task
+     * @return The event-stream
+     */
+    @GET
+    @Path("/tasks/{id}/events")
+    @Produces(SERVER_SENT_EVENTS)
+	public StreamingOutput getTaskEvents(@PathParam("id") String id) {
+        final TaskStatus status = getTask(id);
+
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                Writer writer = new OutputStreamWriter(output, "UTF-8");
+                int version = -1;
+                long deadline = System.currentTimeMillis() + MAX_TASK_WAIT * 1000L;
+
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        int current = status.awaitChange(version, Math.max(1, deadline - System.currentTimeMillis()));
+
+                        if (current == version) {
+                            writer.write(":keep-alive\n\n");
+                        } else {
+                            version = current;
+                            writer.write("event: status\ndata: " + status.toJson() + "\n\n");
+                        }
+
+                        writer.flush();
+
+                        if (status.isDone())
+                            break;
+                    }
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+	}
+
+    /**
+     * Streams the changes of the VMs as server-sent events until the client disconnects. An event "vm" is sent when a VM is created,
+     * removed or its name, power-state, overall-status, HostSystem, ResourcePool or configuration changed, an event "synced" when the
+     * inventory-mirror of an endpoint is (again) in sync. Changes while a mirror was out of sync are not reported.
+     *
+     * @param vmNames Names of the VMs to report, all VMs if none is given
+     * @param snapshot If the current state of the matching VMs is sent before the "synced"-event
+     * @return The event-stream
+     * @throws VMWareException If a filter-criterion is invalid
+     */
+    @GET
+    @Path("/events")
+    @Produces(SERVER_SENT_EVENTS)
+	public StreamingOutput streamVmEvents(@QueryParam("endpoint") String endpoint, @QueryParam("vm") List<String> vmNames,
+                                          @QueryParam("name") String name, @QueryParam("regex") String regex,
+                                          @QueryParam("pool") String pool, @QueryParam("host") String host,
+                                          @QueryParam("powerState") String powerState, @QueryParam("status") String status,
+                                          @QueryParam("snapshot") boolean snapshot) throws VMWareException {
+        VmFilter filter = new VmFilter(name, regex, pool, host, powerState, status);
+
+        List<VMWareHelper> helpers = new ArrayList<VMWareHelper>();
+        for (Endpoint current : getEndpoints(endpoint))
+            helpers.add(VMWareHelper.getInstance(current));
+
+        return new VmEventStream(helpers, filter, new HashSet<String>(vmNames), snapshot);
+	}
 
-        return helper.moveVmToHostSystem(vmName, hostSystem);
+    /**
+     * Returns latency, errors and SOAP round-trips per operation, the session-wait-time and the gauges in the Prometheus text-format
+     *
+     * @return The metrics
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(PROMETHEUS)
+	public String getMetrics() {
+        return Metrics.getInstance().toPrometheus();
 	}
 
+    /**
+     * Returns the endpoint addressed by a request
+     *
+     * @param endpoint Name of the endpoint or of its datacenter, null for the first endpoint
+     * @return The endpoint
+     */
+    private static Endpoint getEndpoint(String endpoint) {
+        Endpoint result = Configuration.getInstance().getEndpoint(endpoint);
+
+        if (result == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+
+        return result;
+    }
+
+    /**
+     * Returns the endpoints a query fans out to
+     *
+     * @param endpoint Name of the endpoint or of its datacenter, null for all endpoints
+     * @return The endpoints
+     */
+    private static List<Endpoint> getEndpoints(String endpoint) {
+        return endpoint == null ? Configuration.getInstance().getEndpoints() : Collections.singletonList(getEndpoint(endpoint));
+    }
+
+    private static VMWareHelper getHelper(String endpoint) {
+        return VMWareHelper.getInstance(getEndpoint(endpoint));
+    }
+
+    /**
+     * Returns the helper for an operation on a VM. Without an endpoint-parameter the VM is looked up in all endpoints, an unknown VM is
+     * passed to the first endpoint to report it.
+     *
+     * @param endpoint Name of the endpoint or of its datacenter, may be null
+     * @param vmName Name of the VM
+     * @param consistent If true vCenter is asked for the owner, otherwise the inventory-mirrors are used if they are in sync
+     * @return The helper
+     * @throws VMWareException If all endpoints failed
+     */
+    private static VMWareHelper getHelper(String endpoint, String vmName, boolean consistent) throws VMWareException {
+        List<Endpoint> endpoints = Configuration.getInstance().getEndpoints();
+
+        if (endpoint != null || endpoints.size() < 2)
+            return getHelper(endpoint);
+
+        Endpoint owner = VMWareHelper.findOwner(endpoints, vmName, consistent);
+
+        return VMWareHelper.getInstance(owner != null ? owner : endpoints.get(0));
+    }
+
+    private TaskStatus getTask(String id) {
+        TaskStatus status = AsyncTaskRegistry.getInstance().get(id);
+
+        if (status == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+
+        return status;
+    }
+
+    private static Response accepted(TaskStatus status) {
+        return Response.status(Response.Status.ACCEPTED)
+                .location(URI.create("vmware/tasks/" + status.getId()))
+                .entity(status.toJson())
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+    }
+
 }
@@ -0,0 +1,172 @@
+package com.zanox.coreservice.vmware.service.rest;
+
+import com.zanox.coreservice.vmware.service.enums.VmEventType;
+import com.zanox.coreservice.vmware.service.helper.Constants;
+import com.zanox.coreservice.vmware.service.helper.InventoryMirror;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+import com.zanox.coreservice.vmware.service.helper.VMWareHelper;
+import com.zanox.coreservice.vmware.service.vo.VmEvent;
+import com.zanox.coreservice.vmware.service.vo.VmFilter;
+import com.zanox.coreservice.vmware.service.vo.VmInfo;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-sent event-stream of the changes of the VMs of several endpoints
+ *
+ * Every endpoint gets a listener on its inventory-mirror which puts the matching changes into a bounded queue, the stream writes them
+ * until the client disconnects. If the client reads slower than the VMs change the dropped events are counted and reported by an
+ * overflow-event, the client should re-read the state then. The stream is closed with a closed-event when a mirror is stopped (e.g. the
+ * endpoint was reconfigured) or after the maximum age, so it does not hold a request-thread forever; SSE-clients reconnect by themselves.
+ */
+public class VmEventStream implements StreamingOutput {
+
+    private final List<VMWareHelper> helpers;
+
+    private final VmFilter filter;
+
+    private final Set<String> vmNames;
+
+    private final boolean snapshot;
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<String>(Constants.EVENT_QUEUE_SIZE);
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile String closedEndpoint;
+
+    /**
+     * Constructor of <code>VmEventStream</code>
+     *
+     * @param helpers Instances of the endpoints to listen to
+     * @param filter Filter the VMs have to match
+     * @param vmNames Names of the VMs to report, empty for all VMs
+     * @param snapshot If the state of the matching VMs is reported when an inventory-mirror is in sync
+     */
+    public VmEventStream(final List<VMWareHelper> helpers, final VmFilter filter, final Set<String> vmNames, final boolean snapshot) {
+        this.helpers = helpers;
+        this.filter = filter;
+        this.vmNames = vmNames;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        Map<VMWareHelper, InventoryMirror.Listener> listeners = new LinkedHashMap<VMWareHelper, InventoryMirror.Listener>();
+
+        try {
+            for (VMWareHelper helper : helpers) {
+                InventoryMirror.Listener listener = createListener(helper.getEndpoint());
+                listeners.put(helper, listener);
+                helper.addVmListener(listener);
+            }
+
+            long deadline = System.currentTimeMillis() + Constants.EVENT_STREAM_MAX_AGE;
+
+            // a disconnected client is noticed by the failing write of the next event or keep-alive
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    close(writer, "{\"reason\":\"timeout\"}");
+                    return;
+                }
+
+                String event = events.poll(Math.min(remaining, Constants.EVENT_KEEP_ALIVE), TimeUnit.MILLISECONDS);
+                long lost = dropped.getAndSet(0);
+
+                if (lost > 0)
+                    writer.write("event: overflow\ndata: {\"dropped\":" + lost + "}\n\n");
+
+                if (event == null) {
+                    writer.write(":keep-alive\n\n");
+                } else {
+                    // events that queued up meanwhile are written with one flush
+                    do {
+                        writer.write(event);
+                    } while ((event = events.poll()) != null);
+                }
+
+                // the events of the stopped mirror are written first, the client reconnects to the new instance of the endpoint
+                if (closedEndpoint != null) {
+                    close(writer, "{\"reason\":\"stopped\",\"endpoint\":" + JsonHelper.quote(closedEndpoint) + "}");
+                    return;
+                }
+
+                writer.flush();
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Map.Entry<VMWareHelper, InventoryMirror.Listener> entry : listeners.entrySet())
+                entry.getKey().removeVmListener(entry.getValue());
+        }
+    }
+
+    private InventoryMirror.Listener createListener(final String endpoint) {
+
+        final String source = helpers.size() > 1 ? endpoint : null;
+
+        return new InventoryMirror.Listener() {
+            @Override
+            public void synced(List<VmInfo> vms) {
+
+                if (snapshot) {
+                    for (VmInfo vm : vms) {
+                        if (matches(vm))
+                            offer("vm", new VmEvent(VmEventType.CURRENT, vm, new ArrayList<String>()).toJson(source));
+                    }
+                }
+
+                offer("synced", "{\"endpoint\":" + JsonHelper.quote(endpoint) + "}");
+            }
+
+            @Override
+            public void changed(VmEvent event) {
+
+                if (matches(event.getVm()))
+                    offer("vm", event.toJson(source));
+            }
+
+            @Override
+            public void stopped() {
+
+                closedEndpoint = endpoint;
+
+                // wakes up the stream, a full queue does not need it
+                events.offer("");
+            }
+        };
+    }
+
+    private void close(final Writer writer, final String data) throws IOException {
+
+        writer.write("event: closed\ndata: " + data + "\n\n");
+        writer.flush();
+    }
+
+    private boolean matches(final VmInfo vm) {
+        return (vmNames.isEmpty() || vmNames.contains(vm.getName())) && filter.matches(vm);
+    }
+
+    private void offer(final String type, final String data) {
+
+        if (!events.offer("event: " + type + "\ndata: " + data + "\n\n"))
+            dropped.incrementAndGet();
+    }
+}
@@ -2,58 +2,193 @@ package com.zanox.coreservice.vmware.service.vo;
 
 import com.zanox.coreservice.vmware.service.helper.Constants;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Configuration-class
  *
+ * A Configuration is an immutable snapshot of vmware.properties, <code>getInstance</code> returns the current snapshot without locking.
+ * <code>reload</code> reads and validates a new snapshot and swaps it atomically, so a request that keeps its snapshot never sees a mix
+ * of old and new values.
+ *
  * @author Sascha Moellering (sascha.moellering@zanox.com)
  *
  */
 public class Configuration {
 
-    private static Configuration conf;
+    private static final AtomicReference<Configuration> conf = new AtomicReference<Configuration>();
 
-    private Properties props;
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
 
     private static final String CONFIG = "vmware.properties";
 
     private static final Logger logger = Logger.getLogger(Configuration.class.getName());
 
+    private final Properties props;
+
+    private final List<String> errors = new ArrayList<String>();
 
-    private String userName;
-    private String password;
-    private String url;
-    private String dcName;
-    private String guestOsId;
-    private String diskMode;
-    private String dataStoreName;
-    private String netName;
-    private String nicName;
-    private String virtualNetwork;
+    private final String userName;
+    private final String password;
+    private final String url;
+    private final String dcName;
+    private final String guestOsId;
+    private final String diskMode;
+    private final String dataStoreName;
+    private final String netName;
+    private final String nicName;
+    private final String virtualNetwork;
+    private final int retrieveMaxObjects;
+    private final int maxPowerOperations;
+    private final int maxOperations;
+    private final int maxOperationsPerHost;
+    private final int maxOperationsPerDatastore;
+    private final int maxQueuedOperations;
+    private final int operationsPerSecond;
+    private final int powerStateBatchWindow;
+    private final int taskTimeout;
+    private final String template;
+    private final String templateSnapshot;
+    private final List<Endpoint> endpoints;
 
     /**
      * private constructor for Configuration
+     *
+     * @param props The loaded properties
      */
-    private Configuration() {
-        this.reload();
+    private Configuration(final Properties props) {
+        this.props = props;
+
+        userName = props.getProperty(Constants.USERNAME);
+        password = props.getProperty(Constants.PASSWORD);
+        url = props.getProperty(Constants.URL);
+        dcName = props.getProperty(Constants.DC_NAME);
+        guestOsId = props.getProperty(Constants.GUEST_OS);
+        diskMode = props.getProperty(Constants.DISK_MODE);
+        dataStoreName = props.getProperty(Constants.DATA_STORE);
+        netName = props.getProperty(Constants.NET_NAME);
+        nicName = props.getProperty(Constants.NIC_NAME);
+        virtualNetwork = props.getProperty(Constants.VIRTUAL_NETWORK);
+        retrieveMaxObjects = getInt(Constants.RETRIEVE_MAX_OBJECTS, Constants.DEFAULT_RETRIEVE_MAX_OBJECTS);
+        maxPowerOperations = getInt(Constants.MAX_POWER_OPERATIONS, Constants.DEFAULT_MAX_POWER_OPERATIONS);
+        maxOperations = getInt(Constants.MAX_OPERATIONS, Constants.DEFAULT_MAX_OPERATIONS);
+        maxOperationsPerHost = getInt(Constants.MAX_OPERATIONS_PER_HOST, Constants.DEFAULT_MAX_OPERATIONS_PER_HOST);
+        maxOperationsPerDatastore = getInt(Constants.MAX_OPERATIONS_PER_DATASTORE, Constants.DEFAULT_MAX_OPERATIONS_PER_DATASTORE);
+        maxQueuedOperations = getInt(Constants.MAX_QUEUED_OPERATIONS, Constants.DEFAULT_MAX_QUEUED_OPERATIONS);
+        operationsPerSecond = getInt(Constants.OPERATIONS_PER_SECOND, Constants.DEFAULT_OPERATIONS_PER_SECOND);
+        powerStateBatchWindow = getInt(Constants.POWER_STATE_BATCH_WINDOW, Constants.DEFAULT_POWER_STATE_BATCH_WINDOW, 0);
+        taskTimeout = getInt(Constants.TASK_TIMEOUT, Constants.DEFAULT_TASK_TIMEOUT);
+        template = getString(Constants.TEMPLATE);
+        templateSnapshot = getString(Constants.TEMPLATE_SNAPSHOT);
+
+        endpoints = Collections.unmodifiableList(readEndpoints());
     }
 
     /**
-     * Returns an instance of the Configuration-object
+     * Returns the current Configuration-snapshot, the first call loads the configuration
      *
      * @return The Configuration-object
      */
-    public synchronized static Configuration getInstance() {
+    public static Configuration getInstance() {
 
-        if (conf == null) {
-            conf = new Configuration();
+        Configuration current = conf.get();
+
+        if (current == null) {
+            synchronized (Configuration.class) {
+                current = conf.get();
+
+                if (current == null) {
+                    current = load();
+
+                    // there is no previous snapshot to keep, invalid values are replaced by their defaults
+                    for (String error : current.errors)
+                        logger.warning(error);
+
+                    conf.set(current);
+                }
+            }
         }
-        return conf;
+
+        return current;
+    }
+
+    /**
+     * Returns the external configuration-file set with the system-property vmware.config
+     *
+     * @return The file or null if the configuration is read from the classpath
+     */
+    public static File getConfigFile() {
+
+        String file = System.getProperty(Constants.CONFIG_FILE);
+
+        return file == null || file.trim().isEmpty() ? null : new File(file.trim());
+    }
+
+    /**
+     * Reloading the config
+     *
+     * The new snapshot replaces the current one only if it is valid, the listeners are called after the swap.
+     *
+     * @return If the new snapshot was applied
+     */
+    public static synchronized boolean reload() {
+
+        Configuration updated;
+
+        try {
+            updated = load();
+        } catch (RuntimeException exc) {
+            logger.log(Level.SEVERE, "Error", exc);
+            return false;
+        }
+
+        if (!updated.errors.isEmpty()) {
+            logger.severe("Configuration rejected: " + updated.errors);
+            return false;
+        }
+
+        Configuration previous = conf.getAndSet(updated);
+
+        if (previous == null || previous.props.equals(updated.props))
+            return true;
+
+        logger.info("Configuration reloaded");
+
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(previous, updated);
+            } catch (RuntimeException exc) {
+                logger.log(Level.WARNING, "Configuration-listener failed", exc);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Registers a listener that is called after a changed configuration was applied
+     *
+     * @param listener The listener
+     */
+    public static void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(final Listener listener) {
+        listeners.remove(listener);
     }
 
     public String getUserName() {
@@ -96,39 +231,248 @@ public class Configuration {
         return virtualNetwork;
     }
 
+    public int getRetrieveMaxObjects() {
+        return retrieveMaxObjects;
+    }
+
+    public int getMaxPowerOperations() {
+        return maxPowerOperations;
+    }
+
     /**
-     * Reloading the config
+     * Returns the maximum number of concurrent mutating operations per vCenter-endpoint
+     *
+     * @return The limit
      */
-    public void reload() {
-        InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(CONFIG);
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    public int getMaxOperationsPerHost() {
+        return maxOperationsPerHost;
+    }
+
+    public int getMaxOperationsPerDatastore() {
+        return maxOperationsPerDatastore;
+    }
+
+    /**
+     * Returns the maximum number of mutating operations waiting for admission per vCenter-endpoint, further operations are rejected
+     *
+     * @return The limit
+     */
+    public int getMaxQueuedOperations() {
+        return maxQueuedOperations;
+    }
+
+    /**
+     * Returns the rate of mutating operations started per second over all endpoints
+     *
+     * @return The rate
+     */
+    public int getOperationsPerSecond() {
+        return operationsPerSecond;
+    }
+
+    /**
+     * Returns the time in milliseconds power-state-lookups of vCenter are collected to be read with one call, 0 if disabled
+     *
+     * @return The window
+     */
+    public int getPowerStateBatchWindow() {
+        return powerStateBatchWindow;
+    }
+
+    /**
+     * Returns the time in seconds a request waits for a vCenter-task before it fails
+     *
+     * @return The timeout
+     */
+    public int getTaskTimeout() {
+        return taskTimeout;
+    }
+
+    /**
+     * Returns the template VMs are cloned from as linked clones
+     *
+     * @return The name of the template or null if VMs are created from scratch
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the snapshot of the template the linked clones are based on
+     *
+     * @return The name of the snapshot or null for the current snapshot of the template
+     */
+    public String getTemplateSnapshot() {
+        return templateSnapshot;
+    }
+
+    /**
+     * Returns all vCenter-endpoints, the endpoint "default" of username, password, url and datacenter comes first
+     *
+     * @return The endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns the endpoint with a name or with a datacenter of that name
+     *
+     * @param nameOrDatacenter Name of the endpoint or of its datacenter, null for the first endpoint
+     * @return The endpoint or null if there is no such endpoint
+     */
+    public Endpoint getEndpoint(final String nameOrDatacenter) {
+
+        if (nameOrDatacenter == null || nameOrDatacenter.isEmpty())
+            return endpoints.isEmpty() ? null : endpoints.get(0);
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getName().equals(nameOrDatacenter))
+                return endpoint;
+        }
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.matches(nameOrDatacenter))
+                return endpoint;
+        }
+
+        return null;
+    }
+
+    private static Configuration load() {
+
+        File file = getConfigFile();
+        Properties props = new Properties();
 
-        props = new Properties();
         try {
-            logger.info("Loaging config ...");
-            props.load(inputStream);
-            this.init();
+            logger.info("Loading config " + (file == null ? CONFIG : file.getAbsolutePath()) + " ...");
+
+            InputStream inputStream = file == null ? Configuration.class.getClassLoader().getResourceAsStream(CONFIG)
+                    : new FileInputStream(file);
+
+            if (inputStream == null)
+                throw new IOException(CONFIG + " not found");
+
+            try {
+                props.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException exc) {
+            throw new IllegalStateException("Could not load configuration: " + exc.getMessage(), exc);
         }
 
-        catch (IOException exc) {
-            logger.log(Level.SEVERE, "Error", exc);
+        return new Configuration(props);
+    }
+
+    private int getInt(final String key, final int defaultValue) {
+        return getInt(key, defaultValue, 1);
+    }
+
+    private int getInt(final String key, final int defaultValue, final int minValue) {
+
+        String value = props.getProperty(key);
+
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+
+        try {
+            int result = Integer.parseInt(value.trim());
+
+            if (result >= minValue)
+                return result;
+        } catch (NumberFormatException exc) {
+            // reported below
+        }
+
+        errors.add("Invalid value for " + key + ": " + value);
+        return defaultValue;
+    }
+
+    private String getString(final String key) {
+
+        String value = props.getProperty(key);
+
+        return isEmpty(value) ? null : value.trim();
+    }
+
+    private List<Endpoint> readEndpoints() {
+
+        List<Endpoint> result = new ArrayList<Endpoint>();
+        String names = props.getProperty(Constants.ENDPOINTS);
+
+        // without additional endpoints the default-endpoint is used even if it is not configured yet
+        if (names == null || names.trim().isEmpty() || !isEmpty(url))
+            result.add(new Endpoint(Constants.DEFAULT_ENDPOINT, userName, password, url, dcName));
+
+        if (names != null) {
+            for (String name : names.split(",")) {
+                name = name.trim();
+
+                if (name.isEmpty())
+                    continue;
+
+                String prefix = Constants.ENDPOINT_PREFIX + name + ".";
+                String endpointUrl = props.getProperty(prefix + Constants.URL);
+
+                if (Constants.DEFAULT_ENDPOINT.equals(name) || getEndpoint(result, name) != null)
+                    errors.add("Duplicate endpoint " + name);
+                else if (isEmpty(endpointUrl))
+                    errors.add("Missing value for " + prefix + Constants.URL);
+
+                // user and password are shared unless they are configured per endpoint
+                result.add(new Endpoint(name, props.getProperty(prefix + Constants.USERNAME, userName),
+                        props.getProperty(prefix + Constants.PASSWORD, password), endpointUrl, props.getProperty(prefix + Constants.DC_NAME)));
+            }
+        }
+
+        for (Endpoint endpoint : result)
+            validateUrl(endpoint);
+
+        return result;
+    }
+
+    private void validateUrl(final Endpoint endpoint) {
+
+        if (isEmpty(endpoint.getUrl()))
+            return;
+
+        try {
+            new URL(endpoint.getUrl());
+        } catch (MalformedURLException exc) {
+            errors.add("Invalid URL of endpoint " + endpoint.getName() + ": " + endpoint.getUrl());
         }
     }
 
-    private void init() {
-        logger.info("In init");
-        if (props != null) {
-            logger.info("props != null");
-            userName = props.getProperty(Constants.USERNAME);
-            password = props.getProperty(Constants.PASSWORD);
-            url = props.getProperty(Constants.URL);
-            dcName = props.getProperty(Constants.DC_NAME);
-            guestOsId = props.getProperty(Constants.GUEST_OS);
-            diskMode = props.getProperty(Constants.DISK_MODE);
-            dataStoreName = props.getProperty(Constants.DATA_STORE);
-            netName = props.getProperty(Constants.NET_NAME);
-            nicName = props.getProperty(Constants.NIC_NAME);
-            virtualNetwork = props.getProperty(Constants.VIRTUAL_NETWORK);
+    private static Endpoint getEndpoint(final List<Endpoint> endpoints, final String name) {
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getName().equals(name))
+                return endpoint;
         }
+
+        return null;
+    }
+
+    private static boolean isEmpty(final String value) {
+        return value == null || value.trim().isEmpty();
     }
 
+    /**
+     * Listener for configuration-changes
+     */
+    public interface Listener {
+
+        /**
+         * Called after a changed configuration was applied
+         *
+         * @param previous The replaced snapshot
+         * @param current The new snapshot
+         */
+        void changed(Configuration previous, Configuration current);
+    }
 }
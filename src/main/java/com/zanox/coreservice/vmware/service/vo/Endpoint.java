@@ -0,0 +1,65 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+/**
+ * Named vCenter-endpoint: login, URL and the datacenter used for new VMs
+ */
+public class Endpoint {
+
+    private final String name;
+    private final String userName;
+    private final String password;
+    private final String url;
+    private final String dcName;
+
+    public Endpoint(final String name, final String userName, final String password, final String url, final String dcName) {
+        this.name = name;
+        this.userName = userName;
+        this.password = password;
+        this.url = url;
+        this.dcName = dcName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns the encrypted password
+     *
+     * @return The password
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getDcName() {
+        return dcName;
+    }
+
+    /**
+     * Returns if the endpoint is addressed by a name or by the name of its datacenter
+     *
+     * @param nameOrDatacenter Name of the endpoint or of the datacenter
+     * @return If the endpoint matches
+     */
+    public boolean matches(final String nameOrDatacenter) {
+        return name.equals(nameOrDatacenter) || (dcName != null && dcName.equals(nameOrDatacenter));
+    }
+
+    public String toJson() {
+        return "{\"name\":" + JsonHelper.quote(name)
+                + ",\"url\":" + JsonHelper.quote(url)
+                + ",\"datacenter\":" + JsonHelper.quote(dcName)
+                + "}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.enums.OpEnum;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Power-operation for many VMs, the targets are given by name and/or by a regular expression on the name
+ */
+@XmlRootElement(name = "power")
+public class PowerRequest {
+
+    private List<String> names = new ArrayList<String>();
+    private String pattern;
+    private OpEnum operation;
+
+    @XmlElement(name = "name")
+    public List<String> getNames() {
+        return names;
+    }
+
+    public void setNames(List<String> names) {
+        this.names = names;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public OpEnum getOperation() {
+        return operation;
+    }
+
+    public void setOperation(OpEnum operation) {
+        this.operation = operation;
+    }
+}
@@ -0,0 +1,76 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.enums.OpEnum;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+/**
+ * Outcome of a power-operation on one VM within a bulk-operation
+ */
+public class PowerResult {
+
+    private final String name;
+    private OpEnum operation;
+    private boolean success;
+    private String error;
+    private long duration;
+
+    public PowerResult(final String name, final OpEnum operation) {
+        this.name = name;
+        this.operation = operation;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the executed operation, POWER_OFF if a SHUTDOWN fell back because the VMware-tools are not available
+     *
+     * @return The operation
+     */
+    public OpEnum getOperation() {
+        return operation;
+    }
+
+    public void setOperation(OpEnum operation) {
+        this.operation = operation;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Returns the duration of the operation
+     *
+     * @return The duration in ms
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public String toJson() {
+        return "{\"name\":" + JsonHelper.quote(name)
+                + ",\"operation\":" + JsonHelper.quote(operation)
+                + ",\"success\":" + success
+                + ",\"error\":" + JsonHelper.quote(error)
+                + ",\"duration\":" + duration
+                + "}";
+    }
+}
@@ -0,0 +1,168 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.enums.TaskState;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+/**
+ * Status of an asynchronous task, every change increments the version and wakes up waiting threads
+ */
+public class TaskStatus {
+
+    private final String id;
+    private final String operation;
+    private final String target;
+    private final long created;
+
+    private TaskState state = TaskState.QUEUED;
+    private Integer progress;
+    private String vcenterTask;
+    private String result;
+    private String error;
+    private long finished;
+    private int version;
+
+    public TaskStatus(final String id, final String operation, final String target) {
+        this.id = id;
+        this.operation = operation;
+        this.target = target;
+        this.created = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public synchronized TaskState getState() {
+        return state;
+    }
+
+    public synchronized Integer getProgress() {
+        return progress;
+    }
+
+    public synchronized String getResult() {
+        return result;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    public synchronized boolean isDone() {
+        return state == TaskState.SUCCESS || state == TaskState.ERROR;
+    }
+
+    public synchronized void running() {
+        state = TaskState.RUNNING;
+        changed();
+    }
+
+    public synchronized void setProgress(final Integer progress) {
+        if (progress != null && !progress.equals(this.progress)) {
+            this.progress = progress;
+            changed();
+        }
+    }
+
+    public synchronized void setVcenterTask(final String vcenterTask) {
+        this.vcenterTask = vcenterTask;
+        changed();
+    }
+
+    public synchronized void succeeded(final Object result) {
+        this.state = TaskState.SUCCESS;
+        this.progress = 100;
+        this.result = result == null ? null : result.toString();
+        this.finished = System.currentTimeMillis();
+        changed();
+    }
+
+    public synchronized void failed(final Throwable error) {
+        this.state = TaskState.ERROR;
+        this.error = error.getMessage() == null ? error.toString() : error.getMessage();
+        this.finished = System.currentTimeMillis();
+        changed();
+    }
+
+    /**
+     * Waits until the version of the status differs from the given one
+     *
+     * @param seenVersion The last version the caller has seen
+     * @param timeout Maximum time to wait in ms
+     * @return The current version
+     * @throws InterruptedException If the thread is interrupted
+     */
+    public synchronized int awaitChange(final int seenVersion, final long timeout) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (version == seenVersion) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0)
+                break;
+
+            wait(remaining);
+        }
+
+        return version;
+    }
+
+    /**
+     * Waits until the task is done
+     *
+     * @param timeout Maximum time to wait in ms
+     * @return If the task is done
+     * @throws InterruptedException If the thread is interrupted
+     */
+    public synchronized boolean awaitDone(final long timeout) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (!isDone()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0)
+                break;
+
+            wait(remaining);
+        }
+
+        return isDone();
+    }
+
+    public synchronized String toJson() {
+        return "{\"id\":" + JsonHelper.quote(id)
+                + ",\"operation\":" + JsonHelper.quote(operation)
+                + ",\"target\":" + JsonHelper.quote(target)
+                + ",\"state\":" + JsonHelper.quote(state)
+                + ",\"progress\":" + progress
+                + ",\"vcenterTask\":" + JsonHelper.quote(vcenterTask)
+                + ",\"result\":" + JsonHelper.quote(result)
+                + ",\"error\":" + JsonHelper.quote(error)
+                + ",\"created\":" + created
+                + ",\"finished\":" + (finished == 0 ? "null" : String.valueOf(finished))
+                + "}";
+    }
+
+    private void changed() {
+        version++;
+        notifyAll();
+    }
+}
@@ -0,0 +1,24 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch of VMs to create
+ */
+@XmlRootElement(name = "batch")
+public class VmBatch {
+
+    private List<VmSpec> vms = new ArrayList<VmSpec>();
+
+    @XmlElement(name = "vm")
+    public List<VmSpec> getVms() {
+        return vms;
+    }
+
+    public void setVms(List<VmSpec> vms) {
+        this.vms = vms;
+    }
+}
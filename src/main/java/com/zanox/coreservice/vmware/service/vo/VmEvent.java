@@ -0,0 +1,68 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.enums.VmEventType;
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Change of a VM reported by the inventory-mirror, with the state after the change (or before, if the VM was removed)
+ */
+public class VmEvent {
+
+    private final VmEventType type;
+    private final VmInfo vm;
+    private final List<String> changes;
+
+    /**
+     * Constructor of <code>VmEvent</code>
+     *
+     * @param type Type of the event
+     * @param vm State of the VM
+     * @param changes Changed fields (name, powerState, overallStatus, host, resourcePool, config)
+     */
+    public VmEvent(final VmEventType type, final VmInfo vm, final List<String> changes) {
+        this.type = type;
+        this.vm = vm;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    public VmEventType getType() {
+        return type;
+    }
+
+    public VmInfo getVm() {
+        return vm;
+    }
+
+    public List<String> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the event as JSON
+     *
+     * @param endpoint Name of the endpoint, null to leave it out
+     * @return The JSON-object
+     */
+    public String toJson(final String endpoint) {
+
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("{\"type\":").append(JsonHelper.quote(type.name().toLowerCase()))
+                .append(",\"name\":").append(JsonHelper.quote(vm.getName()))
+                .append(",\"changes\":").append(JsonHelper.value(changes))
+                .append(",\"powerState\":").append(JsonHelper.quote(vm.getPowerState() == null ? null : vm.getPowerState().name()))
+                .append(",\"overallStatus\":").append(JsonHelper.quote(vm.getOverallStatus() == null ? null : vm.getOverallStatus().name()))
+                .append(",\"host\":").append(JsonHelper.quote(vm.getHostName()))
+                .append(",\"resourcePool\":").append(JsonHelper.quote(vm.getResourcePool()))
+                .append(",\"macAddresses\":").append(JsonHelper.value(vm.getMacAddresses()))
+                .append(",\"portgroups\":").append(JsonHelper.value(vm.getPortgroups()));
+
+        if (endpoint != null)
+            builder.append(",\"endpoint\":").append(JsonHelper.quote(endpoint));
+
+        return builder.append('}').toString();
+    }
+}
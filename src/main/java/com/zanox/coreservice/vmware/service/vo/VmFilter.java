@@ -0,0 +1,133 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.zanox.coreservice.vmware.service.exception.VMWareException;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Filter of VM-listings, all given criteria have to match. Names are matched by a glob (* and ?) or a regular expression, HostSystem
+ * and ResourcePool are compared case-insensitive.
+ */
+public class VmFilter {
+
+    private final Pattern name;
+    private final String resourcePool;
+    private final String host;
+    private final VirtualMachinePowerState powerState;
+    private final ManagedEntityStatus overallStatus;
+
+    /**
+     * Constructor of <code>VmFilter</code>, null-values do not restrict the listing
+     *
+     * @param glob Glob the name has to match (e.g. ci-*)
+     * @param regex Regular expression the name has to match
+     * @param resourcePool Name of the ResourcePool
+     * @param host Name of the HostSystem
+     * @param powerState Power-state (e.g. poweredOn)
+     * @param overallStatus Overall-status (e.g. red)
+     * @throws VMWareException If a criterion is invalid
+     */
+    public VmFilter(final String glob, final String regex, final String resourcePool, final String host, final String powerState,
+                    final String overallStatus) throws VMWareException {
+
+        if (glob != null && regex != null)
+            throw new VMWareException("Name-glob and name-regex are exclusive");
+
+        try {
+            if (glob != null)
+                name = Pattern.compile(toRegex(glob));
+            else
+                name = regex == null ? null : Pattern.compile(regex);
+        } catch (PatternSyntaxException exc) {
+            throw new VMWareException(exc);
+        }
+
+        try {
+            this.powerState = powerState == null ? null : VirtualMachinePowerState.valueOf(powerState);
+        } catch (IllegalArgumentException exc) {
+            throw new VMWareException("Invalid power-state " + powerState);
+        }
+
+        try {
+            this.overallStatus = overallStatus == null ? null : ManagedEntityStatus.valueOf(overallStatus);
+        } catch (IllegalArgumentException exc) {
+            throw new VMWareException("Invalid status " + overallStatus);
+        }
+
+        this.resourcePool = resourcePool;
+        this.host = host;
+    }
+
+    /**
+     * Returns if the filter restricts the listing at all
+     *
+     * @return If a criterion is set
+     */
+    public boolean isEmpty() {
+        return name == null && resourcePool == null && host == null && powerState == null && overallStatus == null;
+    }
+
+    /**
+     * Returns if the listing is restricted by HostSystem or ResourcePool, which need the names of the referenced objects
+     *
+     * @return If a HostSystem or ResourcePool is set
+     */
+    public boolean hasPlacement() {
+        return resourcePool != null || host != null;
+    }
+
+    /**
+     * Checks the criteria that do not need the names of referenced objects
+     *
+     * @param vmName Name of the VM
+     * @param vmPowerState Power-state of the VM
+     * @param vmStatus Overall-status of the VM
+     * @return If the VM may match
+     */
+    public boolean matches(final String vmName, final VirtualMachinePowerState vmPowerState, final ManagedEntityStatus vmStatus) {
+        return vmName != null
+                && (name == null || name.matcher(vmName).matches())
+                && (powerState == null || powerState == vmPowerState)
+                && (overallStatus == null || overallStatus == vmStatus);
+    }
+
+    /**
+     * Checks all criteria
+     *
+     * @param vm The VM
+     * @return If the VM matches
+     */
+    public boolean matches(final VmInfo vm) {
+        return matches(vm.getName(), vm.getPowerState(), vm.getOverallStatus())
+                && (resourcePool == null || resourcePool.equalsIgnoreCase(vm.getResourcePool()))
+                && (host == null || host.equalsIgnoreCase(vm.getHostName()));
+    }
+
+    private static String toRegex(final String glob) {
+
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+
+        for (char c : glob.toCharArray()) {
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+
+            regex.append(c == '*' ? ".*" : ".");
+        }
+
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+
+        return regex.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the state of a VM
+ */
+public class VmInfo {
+
+    private final String id;
+    private final String name;
+    private final VirtualMachinePowerState powerState;
+    private final ManagedEntityStatus overallStatus;
+    private final String hostName;
+    private final String resourcePool;
+    private final List<String> macAddresses;
+    private final List<String> portgroups;
+
+    public VmInfo(final String id, final String name, final VirtualMachinePowerState powerState, final ManagedEntityStatus overallStatus,
+                  final String hostName, final String resourcePool, final List<String> macAddresses, final List<String> portgroups) {
+        this.id = id;
+        this.name = name;
+        this.powerState = powerState;
+        this.overallStatus = overallStatus;
+        this.hostName = hostName;
+        this.resourcePool = resourcePool;
+        this.macAddresses = Collections.unmodifiableList(macAddresses);
+        this.portgroups = Collections.unmodifiableList(portgroups);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public VirtualMachinePowerState getPowerState() {
+        return powerState;
+    }
+
+    public ManagedEntityStatus getOverallStatus() {
+        return overallStatus;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public String getResourcePool() {
+        return resourcePool;
+    }
+
+    public List<String> getMacAddresses() {
+        return macAddresses;
+    }
+
+    public List<String> getPortgroups() {
+        return portgroups;
+    }
+}
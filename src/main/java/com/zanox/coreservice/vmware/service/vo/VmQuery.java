@@ -0,0 +1,43 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query of fields of many VMs, the VMs are given by name and/or by a regular expression on the name
+ */
+@XmlRootElement(name = "query")
+public class VmQuery {
+
+    private List<String> names = new ArrayList<String>();
+    private String pattern;
+    private List<String> fields = new ArrayList<String>();
+
+    @XmlElement(name = "name")
+    public List<String> getNames() {
+        return names;
+    }
+
+    public void setNames(List<String> names) {
+        this.names = names;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    @XmlElement(name = "field")
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+}
@@ -0,0 +1,64 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import com.zanox.coreservice.vmware.service.helper.JsonHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of the creation of a VM within a batch
+ */
+public class VmResult {
+
+    private final String name;
+    private boolean success;
+    private List<String> macAddresses = new ArrayList<String>();
+    private String error;
+
+    public VmResult(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public List<String> getMacAddresses() {
+        return macAddresses;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void succeeded(final List<String> macAddresses) {
+        this.success = true;
+        this.macAddresses = macAddresses;
+    }
+
+    public void failed(final String error) {
+        this.success = false;
+        this.error = error;
+    }
+
+    public String toJson() {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"name\":").append(JsonHelper.quote(name));
+        builder.append(",\"success\":").append(success);
+        builder.append(",\"macAddresses\":[");
+
+        for (int i = 0; i < macAddresses.size(); i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(JsonHelper.quote(macAddresses.get(i)));
+        }
+
+        builder.append("],\"error\":").append(JsonHelper.quote(error));
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.zanox.coreservice.vmware.service.vo;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Specification of a VM to create, sizes are given in GB like the parameters of the createVM-resource
+ */
+@XmlRootElement(name = "vm")
+public class VmSpec {
+
+    private String name;
+    private Integer memorySize;
+    private Integer diskSize;
+    private Integer cpuCount;
+    private Integer networkCount;
+    private String poolName;
+    private String hostName;
+    private String dataStoreName;
+    private String comment;
+    private String template;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getMemorySize() {
+        return memorySize;
+    }
+
+    public void setMemorySize(Integer memorySize) {
+        this.memorySize = memorySize;
+    }
+
+    public Integer getDiskSize() {
+        return diskSize;
+    }
+
+    public void setDiskSize(Integer diskSize) {
+        this.diskSize = diskSize;
+    }
+
+    public Integer getCpuCount() {
+        return cpuCount;
+    }
+
+    public void setCpuCount(Integer cpuCount) {
+        this.cpuCount = cpuCount;
+    }
+
+    public Integer getNetworkCount() {
+        return networkCount;
+    }
+
+    public void setNetworkCount(Integer networkCount) {
+        this.networkCount = networkCount;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    /**
+     * Returns the datastore of the VM
+     *
+     * @return The datastore or null to use the configured one
+     */
+    public String getDataStoreName() {
+        return dataStoreName;
+    }
+
+    public void setDataStoreName(String dataStoreName) {
+        this.dataStoreName = dataStoreName;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * Returns the template the VM is cloned from as linked clone
+     *
+     * @return The template or null to use the configured one
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+}